@@ -0,0 +1,68 @@
+package cc.carretera.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.carretera.Carretera;
+import cc.carretera.CarreteraBatch;
+import cc.carretera.Carreteras;
+
+/**
+ * Tiempo de una simulación completa con muchos coches concurrentes:
+ * cada coche es un hilo que recorre toda la carretera y el reloj hace
+ * ticks sin esperar. Con pocos coches la carretera está casi vacía y
+ * con miles está saturada, de modo que se mide la contención en
+ * entrar/avanzar y el coste de los despertares en circulando.
+ *
+ * La carretera se crea una vez por prueba y se reutiliza, ya que al
+ * terminar cada simulación vuelve a quedar vacía.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CargaBench {
+
+  @Param({ "monitor", "csp", "csp-segmentos", "cerrojos", "cas", "buzon", "particionada" })
+  public String impl;
+
+  @Param({ "5", "50" })
+  public int segmentos;
+
+  @Param({ "2", "8" })
+  public int carriles;
+
+  @Param({ "1", "10", "100", "1000", "10000" })
+  public int coches;
+
+  Carretera cr;
+
+  @Setup(Level.Trial)
+  public void crear() {
+    cr = Carreteras.crear(impl, segmentos, carriles);
+  }
+
+  @Benchmark
+  public CarreteraBatch.Resultado simulacion() throws InterruptedException {
+    CarreteraBatch batch = new CarreteraBatch(cr, segmentos, carriles, coches, 0, 1);
+    CarreteraBatch.Resultado res = batch.ejecutar(TimeUnit.MINUTES.toNanos(5));
+    if (!res.completada || res.errores > 0) {
+      throw new IllegalStateException(res.toString());
+    }
+    return res;
+  }
+}
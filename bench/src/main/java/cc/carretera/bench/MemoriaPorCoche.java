@@ -0,0 +1,87 @@
+package cc.carretera.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import cc.carretera.Carretera;
+import cc.carretera.CarreteraBatch;
+import cc.carretera.Carreteras;
+import cc.carretera.Coche;
+import cc.carretera.ModoHilos;
+
+/**
+ * Memoria que ocupa cada coche bloqueado según la clase de hilo con la
+ * que se ejecuta. No es un benchmark JMH: arranca N coches que se
+ * quedan esperando en entrar (la carretera tiene un solo carril, que
+ * ocupa un coche que nunca termina) y compara el heap usado y la
+ * memoria residente del proceso antes y después.
+ *
+ * Uso:
+ *   java -cp bench/target/benchmarks.jar cc.carretera.bench.MemoriaPorCoche
+ *        [--impl=cerrojos] [--coches=10000] [--hilos=plataforma|virtual]
+ *
+ * Los hilos virtuales necesitan Java 21 o posterior.
+ */
+public class MemoriaPorCoche {
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> op = CarreteraBatch.opciones(args);
+    String impl = op.getOrDefault("impl", "cerrojos");
+    int coches = Integer.parseInt(op.getOrDefault("coches", "10000"));
+    ModoHilos modo = ModoHilos.deNombre(op.getOrDefault("hilos", "plataforma"));
+
+    Carretera cr = Carreteras.crear(impl, 1, 1);
+    cr.entrar("tapon", Integer.MAX_VALUE);
+
+    long heapAntes = heapUsado();
+    long rssAntes = residente();
+
+    Thread[] hilos = new Thread[coches];
+    for (int i = 0; i < coches; i++) {
+      hilos[i] = Coche.crear(modo, cr, "c" + i, 0, 1);
+      hilos[i].setDaemon(true);
+      hilos[i].start();
+    }
+    // Esperamos a que todos estén bloqueados en entrar
+    for (Thread hilo : hilos) {
+      while (hilo.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+    }
+
+    long heapDespues = heapUsado();
+    long rssDespues = residente();
+
+    System.out.println(coches + " coches con hilos " + modo.name().toLowerCase() + " en " + impl);
+    System.out.printf("heap:      %,d bytes por coche%n", (heapDespues - heapAntes) / coches);
+    if (rssAntes >= 0) {
+      System.out.printf("residente: %,d bytes por coche%n", (rssDespues - rssAntes) / coches);
+    }
+    System.exit(0);
+  }
+
+  private static long heapUsado() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  // VmRSS de /proc/self/status en bytes, -1 si no está disponible
+  private static long residente() {
+    try {
+      for (String linea : Files.readAllLines(Paths.get("/proc/self/status"))) {
+        if (linea.startsWith("VmRSS:")) {
+          return 1024 * Long.parseLong(linea.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      return -1;
+    }
+    return -1;
+  }
+}
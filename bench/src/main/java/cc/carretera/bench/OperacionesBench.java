@@ -0,0 +1,180 @@
+package cc.carretera.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cc.carretera.Carretera;
+import cc.carretera.Carreteras;
+
+/**
+ * Coste de cada operación de Carretera sin contención: un único hilo
+ * llama a la carretera, así que nunca hay que esperar por un carril
+ * libre ni por un tick. Los coches circulan con velocidad 0, de modo
+ * que circulando() vuelve en cuanto se le llama.
+ *
+ * El caso de carretera saturada para tick() llena todos los carriles
+ * con coches que nunca llegan al final de su segmento.
+ *
+ * avanzar() se mide sobre una carretera de LARGA segmentos: el coche
+ * solo sale y vuelve a entrar una vez cada LARGA - 1 avances.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperacionesBench {
+
+  /**
+   * Carretera vacía en la que un solo coche hace sus llamadas.
+   */
+  @State(Scope.Thread)
+  public static class Vacia {
+    @Param({ "monitor", "csp", "csp-segmentos", "cerrojos", "cas", "buzon", "particionada" })
+    public String impl;
+
+    @Param({ "5", "50" })
+    public int segmentos;
+
+    @Param({ "1", "3", "8" })
+    public int carriles;
+
+    Carretera cr;
+
+    // Carretera de un solo segmento para medir entrar + salir
+    Carretera corta;
+
+    @Setup(Level.Trial)
+    public void crear() {
+      cr = Carreteras.crear(impl, segmentos, carriles);
+      corta = Carreteras.crear(impl, 1, carriles);
+    }
+  }
+
+  // Segmentos de la carretera en la que se mide avanzar
+  static final int LARGA = 1000;
+
+  /**
+   * Carretera larga por la que un solo coche avanza segmento a segmento.
+   */
+  @State(Scope.Thread)
+  public static class Avanzando {
+    @Param({ "monitor", "csp", "csp-segmentos", "cerrojos", "cas", "buzon", "particionada" })
+    public String impl;
+
+    @Param({ "1", "3", "8" })
+    public int carriles;
+
+    Carretera cr;
+
+    // Segmento en el que está el coche
+    int segmento;
+
+    @Setup(Level.Trial)
+    public void crear() {
+      cr = Carreteras.crear(impl, LARGA, carriles);
+      cr.entrar("a", 0);
+      segmento = 1;
+    }
+  }
+
+  /**
+   * Carretera con todos sus carriles ocupados por coches que no
+   * terminan nunca su segmento.
+   */
+  @State(Scope.Thread)
+  public static class Saturada {
+    @Param({ "monitor", "csp", "csp-segmentos", "cerrojos", "cas", "buzon", "particionada" })
+    public String impl;
+
+    @Param({ "5", "50" })
+    public int segmentos;
+
+    @Param({ "1", "3", "8" })
+    public int carriles;
+
+    Carretera cr;
+
+    @Setup(Level.Trial)
+    public void crear() {
+      cr = Carreteras.crear(impl, segmentos, carriles);
+      llenar(cr, segmentos, carriles);
+    }
+  }
+
+  /**
+   * Coloca un coche parado en cada carril de la carretera. Los coches
+   * del último segmento entran primero y avanzan con velocidad 0 hasta
+   * su posición, donde se quedan con Integer.MAX_VALUE ticks.
+   */
+  static void llenar(Carretera cr, int segmentos, int carriles) {
+    for (int destino = segmentos; destino >= 1; destino--) {
+      for (int carril = 1; carril <= carriles; carril++) {
+        String id = "p" + destino + "_" + carril;
+        cr.entrar(id, destino == 1 ? Integer.MAX_VALUE : 0);
+        for (int segmento = 2; segmento <= destino; segmento++) {
+          cr.avanzar(id, segmento == destino ? Integer.MAX_VALUE : 0);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void entrarSalir(Vacia s, Blackhole bh) {
+    bh.consume(s.corta.entrar("c", 0));
+    s.corta.salir("c");
+  }
+
+  @Benchmark
+  public void circulando(Vacia s, Blackhole bh) {
+    bh.consume(s.corta.entrar("c", 0));
+    s.corta.circulando("c");
+    s.corta.salir("c");
+  }
+
+  @Benchmark
+  public void viaje(Vacia s, Blackhole bh) {
+    Carretera cr = s.cr;
+    bh.consume(cr.entrar("c", 0));
+    cr.circulando("c");
+    for (int segmento = 2; segmento <= s.segmentos; segmento++) {
+      bh.consume(cr.avanzar("c", 0));
+      cr.circulando("c");
+    }
+    cr.salir("c");
+  }
+
+  @Benchmark
+  public void avanzar(Avanzando s, Blackhole bh) {
+    if (s.segmento == LARGA) {
+      s.cr.salir("a");
+      bh.consume(s.cr.entrar("a", 0));
+      s.segmento = 1;
+    }
+    bh.consume(s.cr.avanzar("a", 0));
+    s.segmento++;
+  }
+
+  @Benchmark
+  public void tickVacia(Vacia s) {
+    s.cr.tick();
+  }
+
+  @Benchmark
+  public void tickSaturada(Saturada s) {
+    s.cr.tick();
+  }
+}
@@ -0,0 +1,81 @@
+package cc.carretera.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cc.carretera.Carretera;
+import cc.carretera.Carreteras;
+
+/**
+ * Rendimiento del proceso servidor de CarreteraCSP con varios coches
+ * llamando a la vez. Cada hilo de JMH es un coche que recorre la
+ * carretera una y otra vez con velocidad 0, así que todas las llamadas
+ * pasan por el bucle del servidor sin esperar ticks.
+ *
+ * Las asignaciones de memoria por operación se ven ejecutándolo con
+ * el perfilador de JMH: -prof gc.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ServidorCSPBench {
+
+  @State(Scope.Benchmark)
+  public static class Compartida {
+    @Param({ "5" })
+    public int segmentos;
+
+    @Param({ "2", "8" })
+    public int carriles;
+
+    Carretera cr;
+
+    final AtomicInteger siguiente = new AtomicInteger(0);
+
+    @Setup(Level.Trial)
+    public void crear() {
+      cr = Carreteras.crear("csp", segmentos, carriles);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Coche {
+    String id;
+
+    @Setup(Level.Trial)
+    public void crear(Compartida c) {
+      id = "c" + c.siguiente.getAndIncrement();
+    }
+  }
+
+  @Benchmark
+  public void viaje(Compartida c, Coche coche, Blackhole bh) {
+    Carretera cr = c.cr;
+    String id = coche.id;
+    bh.consume(cr.entrar(id, 0));
+    cr.circulando(id);
+    for (int segmento = 2; segmento <= c.segmentos; segmento++) {
+      bh.consume(cr.avanzar(id, 0));
+      cr.circulando(id);
+    }
+    cr.salir(id);
+  }
+}
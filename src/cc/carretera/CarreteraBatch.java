@@ -0,0 +1,371 @@
+/*
+ * Simulates a carretera without GUI, as fast as possible.
+ *
+ */
+package cc.carretera;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Motor de simulación sin interfaz gráfica. Lanza un hilo por coche
+ * que ejecuta el protocolo entrar, circulando, [avanzar, circulando]*,
+ * salir contra la implementación elegida, y un hilo reloj que llama a
+ * tick() con la frecuencia pedida (o tan rápido como pueda). Al
+ * terminar informa de coches/segundo y ticks/segundo.
+ *
+ * Uso:
+ *   java -cp bin:lib/* cc.carretera.CarreteraBatch [--impl=nombre]
+ *        [--segmentos=N] [--carriles=N] [--coches=N] [--tps=N]
+ *        [--semilla=N] [--limite=segundos] [--hilos=plataforma|virtual]
+ *        [--reloj=continuo|libre] [--latencias=true] [--metricas=true]
+ *        [--traza=fichero]
+ *
+ * Los nombres de implementación son los de Carreteras.NOMBRES. Con
+ * --tps=0 (valor por defecto) el reloj no duerme entre ticks. Con
+ * --reloj=libre y --tps=0 el reloj da un tick en cuanto todos los
+ * coches esperan en circulando o esperan carril en un segmento que no
+ * se puede vaciar sin él (ver ReposoCoches). Con --hilos=virtual
+ * cada coche es un hilo virtual (Java 21 o posterior). El reloj es
+ * siempre un hilo de plataforma (ver Reloj). Con --latencias=true la
+ * carretera se envuelve en una CarreteraInstrumentada y al terminar se
+ * muestran los percentiles de latencia de cada operación. Con
+ * --metricas=true, si la implementación es una CarreteraMedida, se
+ * muestran las métricas de congestión de cada segmento. Con
+ * --traza=fichero cada llamada se guarda en una Traza binaria que se
+ * puede ver como texto con java cc.carretera.Traza fichero.
+ */
+public class CarreteraBatch {
+
+  // Dimensiones
+  private final int segmentos;
+  private final int carriles;
+
+  // Implementación simulada
+  private final Carretera cr;
+
+  // Número de coches y nanosegundos entre ticks (0 = sin espera)
+  private final int coches;
+  private final long nanosPorTick;
+
+  private final Random rnd;
+
+  // Clase de hilo de los coches
+  private final ModoHilos modo;
+
+  // Reloj en modo libre y dónde esperan los coches, solo en modo libre
+  private final boolean relojLibre;
+  private ReposoCoches reposo;
+
+  /**
+   * Resultado de una simulación.
+   */
+  public static class Resultado {
+    public final int coches;
+    public final long ticks;
+    public final long nanos;
+    public final int errores;
+    public final String primerError;
+    public final boolean completada;
+    // Estadísticas del reloj
+    public final String reloj;
+
+    Resultado(int coches, long ticks, long nanos, int errores, String primerError, boolean completada,
+              String reloj) {
+      this.coches = coches;
+      this.ticks = ticks;
+      this.nanos = nanos;
+      this.errores = errores;
+      this.primerError = primerError;
+      this.completada = completada;
+      this.reloj = reloj;
+    }
+
+    public double segundos() {
+      return nanos / 1e9;
+    }
+
+    public double cochesPorSegundo() {
+      return coches / segundos();
+    }
+
+    public double ticksPorSegundo() {
+      return ticks / segundos();
+    }
+
+    public String toString() {
+      String str = String.format("%d coches en %.3f s: %.1f coches/s, %d ticks, %.1f ticks/s",
+                                 coches, segundos(), cochesPorSegundo(), ticks, ticksPorSegundo());
+      str += "\n" + reloj;
+      if (!completada)
+        str += "\n*** Error: la simulacion no termino en el tiempo limite";
+      if (errores > 0)
+        str += "\n*** Error: " + errores + " llamadas erroneas, la primera: " + primerError;
+      return str;
+    }
+  }
+
+  /**
+   * Crea una simulación.
+   *
+   * @param cr carretera a simular
+   * @param segmentos número de segmentos de cr
+   * @param carriles número de carriles de cr
+   * @param coches número de coches que recorren la carretera
+   * @param ticksPorSegundo frecuencia del reloj, 0 para ir lo más rápido posible
+   * @param semilla semilla para las velocidades de los coches
+   */
+  public CarreteraBatch(Carretera cr, int segmentos, int carriles, int coches,
+                        int ticksPorSegundo, long semilla) {
+    this(cr, segmentos, carriles, coches, ticksPorSegundo, semilla, ModoHilos.PLATAFORMA);
+  }
+
+  /**
+   * Crea una simulación cuyos coches se ejecutan en hilos del modo dado.
+   */
+  public CarreteraBatch(Carretera cr, int segmentos, int carriles, int coches,
+                        int ticksPorSegundo, long semilla, ModoHilos modo) {
+    this(cr, segmentos, carriles, coches, ticksPorSegundo, semilla, modo, false);
+  }
+
+  /**
+   * Crea una simulación. Con relojLibre y ticksPorSegundo 0 el reloj
+   * espera antes de cada tick a que todos los coches esperen en
+   * circulando o esperen un carril que no se puede liberar sin él.
+   */
+  public CarreteraBatch(Carretera cr, int segmentos, int carriles, int coches,
+                        int ticksPorSegundo, long semilla, ModoHilos modo, boolean relojLibre) {
+    if (segmentos < 1 || carriles < 1 || coches < 0 || ticksPorSegundo < 0) {
+      throw new IllegalArgumentException("segmentos y carriles deben ser >= 1, coches y ticks por segundo >= 0");
+    }
+    this.cr = cr;
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    this.coches = coches;
+    this.nanosPorTick = ticksPorSegundo == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / ticksPorSegundo;
+    this.rnd = new Random(semilla);
+    this.modo = modo;
+    this.relojLibre = relojLibre && nanosPorTick == 0;
+  }
+
+  /**
+   * Ejecuta la simulación hasta que todos los coches han salido de la
+   * carretera o se supera el tiempo límite.
+   *
+   * @param limiteNanos tiempo máximo de simulación, 0 para no limitarlo
+   */
+  public Resultado ejecutar(long limiteNanos) throws InterruptedException {
+    CountDownLatch salida = new CountDownLatch(coches);
+    AtomicInteger errores = new AtomicInteger(0);
+    AtomicReference<String> primerError = new AtomicReference<>(null);
+    if (relojLibre)
+      reposo = new ReposoCoches(segmentos, carriles, coches);
+
+    // Un hilo por coche con el protocolo de Coche
+    Thread[] hilos = new Thread[coches];
+    for (int i = 0; i < coches; i++) {
+      String id = "c" + i;
+      int velocidad = 1 + rnd.nextInt(4);
+      hilos[i] = modo.crear(id, () -> {
+        try {
+          recorrer(id, velocidad);
+        } catch (Throwable exc) {
+          if (reposo != null)
+            reposo.averia();
+          errores.incrementAndGet();
+          primerError.compareAndSet(null, id + ": " + exc);
+        } finally {
+          salida.countDown();
+        }
+      });
+      hilos[i].setDaemon(true);
+    }
+
+    // El reloj avanza el tiempo hasta que han salido todos los coches
+    Reloj reloj;
+    if (relojLibre) {
+      // Al día cuando ningún coche que no ha salido puede moverse
+      reloj = new Reloj(() -> {
+        reposo.tick();
+        cr.tick();
+      }, reposo::enReposo);
+    } else {
+      reloj = new Reloj(cr, nanosPorTick);
+    }
+    reloj.setDaemon(true);
+
+    long inicio = System.nanoTime();
+    for (Thread hilo : hilos)
+      hilo.start();
+    reloj.start();
+
+    boolean completada;
+    if (limiteNanos > 0) {
+      completada = salida.await(limiteNanos, TimeUnit.NANOSECONDS);
+    } else {
+      salida.await();
+      completada = true;
+    }
+    long nanos = System.nanoTime() - inicio;
+    // El último tick puede no haberse contado todavía: si la carretera
+    // no se ha quedado bloqueada en él, esperamos a que acabe
+    reloj.terminar();
+    reloj.join(TimeUnit.SECONDS.toMillis(1));
+
+    return new Resultado(coches, reloj.ticks(), nanos, errores.get(), primerError.get(), completada,
+                         reloj.resumen());
+  }
+
+  // Protocolo de un coche, comprobando las posiciones devueltas como
+  // hace Sim.checkCall. Si la carretera admite manejadores enteros se
+  // usan en lugar del identificador.
+  private void recorrer(String id, int velocidad) {
+    if (cr instanceof CarreteraIndexada) {
+      CarreteraIndexada ci = (CarreteraIndexada) cr;
+      int coche = ci.registrar(id);
+      pidiendo(1);
+      Pos pos = ci.entrar(coche, velocidad);
+      long plazo = concedido(1, velocidad);
+      comprobar(pos, 1, "entrar(" + id + "," + velocidad + ")");
+      circulando(ci, coche, plazo);
+      for (int segmento = 2; segmento <= segmentos; segmento++) {
+        pidiendo(segmento);
+        pos = ci.avanzar(coche, velocidad);
+        plazo = concedido(segmento, velocidad);
+        comprobar(pos, segmento, "avanzar(" + id + "," + velocidad + ")");
+        circulando(ci, coche, plazo);
+      }
+      ci.salir(coche);
+    } else {
+      pidiendo(1);
+      Pos pos = cr.entrar(id, velocidad);
+      long plazo = concedido(1, velocidad);
+      comprobar(pos, 1, "entrar(" + id + "," + velocidad + ")");
+      circulando(id, plazo);
+      for (int segmento = 2; segmento <= segmentos; segmento++) {
+        pidiendo(segmento);
+        pos = cr.avanzar(id, velocidad);
+        plazo = concedido(segmento, velocidad);
+        comprobar(pos, segmento, "avanzar(" + id + "," + velocidad + ")");
+        circulando(id, plazo);
+      }
+      cr.salir(id);
+    }
+    if (reposo != null)
+      reposo.salido();
+  }
+
+  private void circulando(CarreteraIndexada ci, int coche, long plazo) {
+    if (reposo != null)
+      reposo.esperando(plazo);
+    ci.circulando(coche);
+    if (reposo != null)
+      reposo.despierto(plazo);
+  }
+
+  private void circulando(String id, long plazo) {
+    if (reposo != null)
+      reposo.esperando(plazo);
+    cr.circulando(id);
+    if (reposo != null)
+      reposo.despierto(plazo);
+  }
+
+  // Solo se avisa de las llamadas si las necesita el reloj libre
+  private void pidiendo(int segmento) {
+    if (reposo != null)
+      reposo.pidiendo(segmento);
+  }
+
+  private long concedido(int segmento, int tks) {
+    return reposo == null ? 0 : reposo.concedido(segmento, tks);
+  }
+
+  // Comprueba la posición devuelta por entrar/avanzar
+  private void comprobar(Pos pos, int segmentoEsperado, String llamada) {
+    if (pos == null) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio NULL");
+    } else if (pos.getSegmento() != segmentoEsperado) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio el segmento "
+                                      + pos.getSegmento() + " != " + segmentoEsperado);
+    } else if (pos.getCarril() < 1 || pos.getCarril() > carriles) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio el carril "
+                                      + pos.getCarril() + " fuera de 1.." + carriles);
+    }
+  }
+
+  // Lee las opciones --clave=valor de la línea de comandos
+  public static Map<String, String> opciones(String[] args) {
+    Map<String, String> opciones = new HashMap<>();
+    for (String arg : args) {
+      int igual = arg.indexOf('=');
+      if (!arg.startsWith("--") || igual < 0) {
+        throw new IllegalArgumentException("opcion mal formada: " + arg + " (se espera --clave=valor)");
+      }
+      opciones.put(arg.substring(2, igual), arg.substring(igual + 1));
+    }
+    return opciones;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Map<String, String> op = opciones(args);
+    String impl = op.getOrDefault("impl", "monitor");
+    int segmentos = Integer.parseInt(op.getOrDefault("segmentos", "5"));
+    int carriles = Integer.parseInt(op.getOrDefault("carriles", "3"));
+    int coches = Integer.parseInt(op.getOrDefault("coches", "100"));
+    int tps = Integer.parseInt(op.getOrDefault("tps", "0"));
+    long semilla = Long.parseLong(op.getOrDefault("semilla", "1"));
+    long limite = Long.parseLong(op.getOrDefault("limite", "60"));
+    ModoHilos modo = ModoHilos.deNombre(op.getOrDefault("hilos", "plataforma"));
+    boolean libre = op.getOrDefault("reloj", "continuo").equals("libre");
+    boolean latencias = Boolean.parseBoolean(op.getOrDefault("latencias", "false"));
+    boolean metricas = Boolean.parseBoolean(op.getOrDefault("metricas", "false"));
+    String fichero = op.get("traza");
+
+    System.out.println("Simulation of " + coches + " cars moving in a carretera of segmentos "
+                       + segmentos + " with " + carriles + " lanes using " + impl
+                       + " [hilos " + modo.name().toLowerCase() + "]");
+    if (modo == ModoHilos.VIRTUAL && Carreteras.fijaHiloPortador(impl)) {
+      System.out.println("*** Aviso: " + impl + " bloquea con synchronized/wait y fija el hilo portador"
+                         + " de cada coche virtual bloqueado");
+    }
+
+    Carretera cr = Carreteras.crear(impl, segmentos, carriles);
+    Carretera base = cr;
+    Traza traza = null;
+    if (fichero != null) {
+      traza = new Traza(1 << 20, Path.of(fichero));
+      cr = new CarreteraTrazada(cr, traza);
+    }
+    CarreteraInstrumentada instrumentada = null;
+    if (latencias) {
+      instrumentada = new CarreteraInstrumentada(cr);
+      cr = instrumentada;
+    }
+    CarreteraBatch batch = new CarreteraBatch(cr, segmentos, carriles, coches, tps, semilla, modo, libre);
+    Resultado res = batch.ejecutar(TimeUnit.SECONDS.toNanos(limite));
+    System.out.println(res);
+    if (instrumentada != null)
+      System.out.println(instrumentada.resumen());
+    if (traza != null) {
+      traza.cerrar();
+      System.out.println("traza: " + traza.fin() + " eventos en " + fichero
+                         + (traza.perdidos() > 0 ? ", " + traza.perdidos() + " perdidos" : ""));
+    }
+    if (metricas) {
+      if (base instanceof CarreteraMedida)
+        System.out.println(((CarreteraMedida) base).metricas());
+      else
+        System.out.println("*** Aviso: " + impl + " no lleva metricas por segmento");
+    }
+
+    // CarreteraCSP deja vivo su proceso servidor, salimos explícitamente
+    System.exit(res.completada && res.errores == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,276 @@
+package cc.carretera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Implementación del recurso compartido Carretera con un buzón: los
+ * coches dejan sus peticiones en una cola sin cerrojos y un único hilo
+ * dueño del estado de la carretera las atiende, como el proceso de
+ * CarreteraCSP pero sin citas entre hilos.
+ *
+ * El dueño vacía el buzón entero en cada vuelta, aplica todas las
+ * peticiones y solo después despierta a los coches que ya tienen
+ * respuesta. Cuando llegan miles de coches a la vez el coste de
+ * despertar al dueño y de cambiar de hilo se reparte entre todas las
+ * peticiones de la tanda. Los ticks llegan por el mismo buzón.
+ */
+public class CarreteraBuzon implements Carretera {
+  private final int SEGMENTOS;
+  private final int CARRILES;
+
+  // Operaciones de un coche
+  private static final int ENTRAR = 0;
+  private static final int AVANZAR = 1;
+  private static final int CIRCULANDO = 2;
+  private static final int SALIR = 3;
+  private static final int TICK = 4;
+
+  // Peticiones pendientes, muchos productores y un consumidor
+  private final Queue<Peticion> buzon = new ConcurrentLinkedQueue<>();
+  // Petición de tick de cada hilo que llama a tick()
+  private final ThreadLocal<Peticion> ticks = ThreadLocal.withInitial(() -> new Peticion("reloj"));
+  // Hilo que atiende el buzón y si está aparcado
+  private final Thread dueno;
+  private volatile boolean dormido = false;
+
+  // Petición de cada coche en la carretera, reutilizada en todas sus llamadas
+  private final Map<String, Peticion> peticiones = new ConcurrentHashMap<>();
+
+  // Estado que solo toca el dueño
+  private final RuedaTemporal<Peticion> rueda = new RuedaTemporal<>();
+  private final OcupacionCarriles ocupacion;
+  // Peticiones bloqueadas por falta de carril en cada segmento, en
+  // orden de llegada: las de entrar en la posición 1 y las de avanzar
+  // al segmento s en la posición s
+  private final ArrayDeque<Peticion>[] espera;
+  // Peticiones respondidas en la vuelta actual
+  private final ArrayList<Peticion> respondidas = new ArrayList<>();
+
+  // Llamada de un coche. Los campos del coche en la carretera solo los
+  // toca el dueño; el coche los ve cuando lee hecho.
+  private static class Peticion {
+    final String id;
+    // Hilo que espera la respuesta
+    Thread hilo;
+    int op;
+    int tks;
+    Pos respuesta;
+    // salir rechazado porque al coche aún le quedan ticks
+    boolean sigueCirculando;
+    volatile boolean hecho;
+
+    // Posición actual, null hasta que entra
+    Pos pos;
+    // Tick en el que acaba su segmento
+    long plazo;
+    // Esperando en circulando a que venza su plazo
+    boolean esperaCirculando;
+    // Ha pedido avanzar antes de que venza su plazo
+    boolean esperaPlazo;
+
+    Peticion(String id) {
+      this.id = id;
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public CarreteraBuzon(int segmentos, int carriles) {
+    this.SEGMENTOS = segmentos;
+    this.CARRILES = carriles;
+    Pos.reservar(segmentos, carriles);
+    this.ocupacion = new OcupacionCarriles(segmentos, carriles);
+    this.espera = new ArrayDeque[segmentos + 1];
+    for (int s = 1; s <= segmentos; s++) {
+      espera[s] = new ArrayDeque<>();
+    }
+    this.dueno = new Thread(this::atenderBuzon, "carretera-buzon");
+    this.dueno.setDaemon(true);
+    this.dueno.start();
+  }
+
+  public Pos entrar(String id, int tks) {
+    Peticion p = new Peticion(id);
+    if (peticiones.putIfAbsent(id, p) != null) {
+      throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+    }
+    return llamar(p, ENTRAR, tks);
+  }
+
+  public Pos avanzar(String id, int tks) {
+    Peticion p = buscar(id);
+    if (p.pos.getSegmento() >= SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+    }
+    return llamar(p, AVANZAR, tks);
+  }
+
+  public void circulando(String id) {
+    llamar(buscar(id), CIRCULANDO, 0);
+  }
+
+  public void salir(String id) {
+    Peticion p = buscar(id);
+    if (p.pos.getSegmento() != SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede salir"));
+    }
+    llamar(p, SALIR, 0);
+    if (p.sigueCirculando) {
+      throw new RuntimeException(new Exception("El coche sigue circulando"));
+    }
+    peticiones.remove(id);
+  }
+
+  public void tick() {
+    llamar(ticks.get(), TICK, 0);
+  }
+
+  private Peticion buscar(String id) {
+    Peticion p = peticiones.get(id);
+    if (p == null) {
+      throw new RuntimeException(new Exception("El coche no existe"));
+    }
+    return p;
+  }
+
+  // Deja la petición en el buzón y aparca al coche hasta que el dueño responde
+  private Pos llamar(Peticion p, int op, int tks) {
+    p.op = op;
+    p.tks = tks;
+    p.hilo = Thread.currentThread();
+    p.hecho = false;
+    enviar(p);
+    while (!p.hecho) {
+      LockSupport.park(this);
+    }
+    return p.respuesta;
+  }
+
+  private void enviar(Peticion p) {
+    buzon.add(p);
+    despertarDueno();
+  }
+
+  private void despertarDueno() {
+    // El dueño marca dormido antes de volver a mirar el buzón, así que
+    // si no lo vemos dormido él verá nuestra petición
+    if (dormido)
+      LockSupport.unpark(dueno);
+  }
+
+  // Bucle del dueño
+  private void atenderBuzon() {
+    while (true) {
+      Peticion p;
+      while ((p = buzon.poll()) != null) {
+        procesar(p);
+      }
+      // Los coches respondidos se despiertan todos juntos
+      for (int i = 0; i < respondidas.size(); i++) {
+        Peticion r = respondidas.get(i);
+        r.hecho = true;
+        LockSupport.unpark(r.hilo);
+      }
+      respondidas.clear();
+
+      dormido = true;
+      if (buzon.isEmpty()) {
+        LockSupport.park(this);
+      }
+      dormido = false;
+    }
+  }
+
+  private void procesar(Peticion p) {
+    switch (p.op) {
+      case ENTRAR:
+        solicitar(p, 1);
+        break;
+      case AVANZAR:
+        if (rueda.restantes(p.plazo) > 0) {
+          // Se atiende cuando venza su plazo
+          p.esperaPlazo = true;
+        } else {
+          solicitar(p, p.pos.getSegmento() + 1);
+        }
+        break;
+      case CIRCULANDO:
+        if (rueda.restantes(p.plazo) == 0) {
+          responder(p, null);
+        } else {
+          p.esperaCirculando = true;
+        }
+        break;
+      case SALIR:
+        p.sigueCirculando = rueda.restantes(p.plazo) > 0;
+        if (!p.sigueCirculando) {
+          ocupacion.liberar(SEGMENTOS, p.pos.getCarril());
+          atender(SEGMENTOS);
+        }
+        responder(p, null);
+        break;
+      case TICK:
+        // Solo los coches que terminan su segmento en este tick
+        rueda.avanzar(this::finSegmento);
+        responder(p, null);
+        break;
+    }
+  }
+
+  private void finSegmento(Peticion p) {
+    if (p.esperaCirculando) {
+      p.esperaCirculando = false;
+      responder(p, null);
+    } else if (p.esperaPlazo) {
+      p.esperaPlazo = false;
+      solicitar(p, p.pos.getSegmento() + 1);
+    }
+  }
+
+  // Coloca al coche en el segmento si hay carril y si no lo pone a la
+  // cola del segmento
+  private void solicitar(Peticion p, int segmento) {
+    if (!espera[segmento].isEmpty() || !ocupacion.hayLibre(segmento)) {
+      espera[segmento].add(p);
+      return;
+    }
+    colocar(p, segmento);
+    if (segmento > 1)
+      atender(segmento - 1);
+  }
+
+  // Atiende en orden a quien espera en un segmento con carriles libres.
+  // Cada avance concedido libera un carril del segmento anterior.
+  private void atender(int segmento) {
+    for (int s = segmento; s >= 1; s--) {
+      ArrayDeque<Peticion> cola = espera[s];
+      boolean concedido = false;
+      while (!cola.isEmpty() && ocupacion.hayLibre(s)) {
+        colocar(cola.poll(), s);
+        concedido = true;
+      }
+      if (!concedido)
+        return;
+    }
+  }
+
+  private void colocar(Peticion p, int segmento) {
+    if (segmento > 1)
+      ocupacion.liberar(segmento - 1, p.pos.getCarril());
+    int carril = ocupacion.primerLibre(segmento);
+    ocupacion.ocupar(segmento, carril);
+    p.pos = Pos.of(segmento, carril);
+    p.plazo = rueda.programar(p, p.tks);
+    responder(p, p.pos);
+  }
+
+  private void responder(Peticion p, Pos respuesta) {
+    p.respuesta = respuesta;
+    respondidas.add(p);
+  }
+}
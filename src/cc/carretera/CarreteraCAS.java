@@ -0,0 +1,218 @@
+package cc.carretera;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Implementación no bloqueante del recurso compartido Carretera. Los
+ * carriles de cada segmento son un mapa de bits en un AtomicLongArray
+ * y entrar/avanzar reclaman un carril con compareAndSet sobre él. Los
+ * ticks de cada coche son un AtomicInteger. Un hilo solo se aparca
+ * (LockSupport.park) cuando no hay carril libre o le quedan ticks, así
+ * que muchos coches llegando a la vez a entrar no forman un convoy
+ * detrás de un cerrojo.
+ */
+public class CarreteraCAS implements Carretera {
+  private final int SEGMENTOS;
+  private final int CARRILES;
+
+  // Palabras de 64 bits por segmento
+  private final int palabras;
+
+  // Bit c-1 de las palabras del segmento s a 1 si el carril c está
+  // ocupado. Los bits que sobran en la última palabra están a 1.
+  private final AtomicLongArray bits;
+
+  // Hilos esperando un carril libre en cada segmento
+  private final Queue<Thread>[] esperando;
+
+  // Coches en la carretera
+  private final Map<String, Coche> coches;
+
+  private static class Coche {
+    // Solo los modifica el hilo del propio coche
+    int segmento;
+    int carril;
+    final AtomicInteger ticks = new AtomicInteger(0);
+    // Hilo aparcado en circulando o null
+    volatile Thread esperando;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public CarreteraCAS(int segmentos, int carriles) {
+    this.SEGMENTOS = segmentos;
+    this.CARRILES = carriles;
+    Pos.reservar(segmentos, carriles);
+    this.palabras = (carriles + 63) >>> 6;
+    this.bits = new AtomicLongArray(segmentos * palabras);
+    int sobrantes = palabras * 64 - carriles;
+    this.esperando = new Queue[segmentos];
+    for (int s = 0; s < segmentos; s++) {
+      esperando[s] = new ConcurrentLinkedQueue<>();
+      if (sobrantes > 0) {
+        bits.set(s * palabras + palabras - 1, -1L << (64 - sobrantes));
+      }
+    }
+    this.coches = new ConcurrentHashMap<>();
+  }
+
+  public Pos entrar(String id, int tks) {
+    Coche coche = new Coche();
+    if (coches.putIfAbsent(id, coche) != null) {
+      throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+    }
+    int carril = reclamar(1);
+    if (carril == 0) {
+      carril = esperarCarril(1);
+    }
+    coche.segmento = 1;
+    coche.carril = carril;
+    coche.ticks.set(tks);
+    return Pos.of(1, carril);
+  }
+
+  public Pos avanzar(String id, int tks) {
+    Coche coche = buscar(id);
+    int segmentoActual = coche.segmento;
+    if (segmentoActual >= SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+    }
+    if (coche.ticks.get() != 0) {
+      throw new RuntimeException(new Exception("El coche sigue circulando"));
+    }
+    int siguiente = segmentoActual + 1;
+    int carril = reclamar(siguiente);
+    if (carril == 0) {
+      carril = esperarCarril(siguiente);
+    }
+    // El coche ocupa el nuevo carril antes de dejar el anterior
+    liberar(segmentoActual, coche.carril);
+    coche.segmento = siguiente;
+    coche.carril = carril;
+    coche.ticks.set(tks);
+    return Pos.of(siguiente, carril);
+  }
+
+  public void circulando(String id) {
+    Coche coche = buscar(id);
+    if (coche.ticks.get() == 0)
+      return;
+    // Primero nos anunciamos y luego miramos los ticks; tick() hace lo
+    // contrario, así que alguno de los dos ve al otro
+    coche.esperando = Thread.currentThread();
+    try {
+      while (coche.ticks.get() > 0) {
+        LockSupport.park(this);
+      }
+    } finally {
+      coche.esperando = null;
+    }
+  }
+
+  public void salir(String id) {
+    Coche coche = buscar(id);
+    if (coche.segmento != SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede salir"));
+    }
+    if (coche.ticks.get() != 0) {
+      throw new RuntimeException(new Exception("El coche sigue circulando"));
+    }
+    coches.remove(id);
+    liberar(SEGMENTOS, coche.carril);
+  }
+
+  public void tick() {
+    for (Coche coche : coches.values()) {
+      AtomicInteger ticks = coche.ticks;
+      int t;
+      do {
+        t = ticks.get();
+        if (t == 0)
+          break;
+      } while (!ticks.compareAndSet(t, t - 1));
+      if (t == 1) {
+        Thread hilo = coche.esperando;
+        if (hilo != null)
+          LockSupport.unpark(hilo);
+      }
+    }
+  }
+
+  // Reclama el carril libre más bajo del segmento, 0 si no hay ninguno
+  private int reclamar(int segmento) {
+    int base = (segmento - 1) * palabras;
+    for (int p = 0; p < palabras; p++) {
+      long actual = bits.get(base + p);
+      while (actual != -1L) {
+        long bit = ~actual & (actual + 1);
+        if (bits.compareAndSet(base + p, actual, actual | bit)) {
+          return (p << 6) + Long.numberOfTrailingZeros(bit) + 1;
+        }
+        actual = bits.get(base + p);
+      }
+    }
+    return 0;
+  }
+
+  private boolean hayLibre(int segmento) {
+    int base = (segmento - 1) * palabras;
+    for (int p = 0; p < palabras; p++) {
+      if (bits.get(base + p) != -1L)
+        return true;
+    }
+    return false;
+  }
+
+  // Deja libre el carril y despierta al primer hilo que espera en el segmento
+  private void liberar(int segmento, int carril) {
+    int i = (segmento - 1) * palabras + ((carril - 1) >>> 6);
+    long bit = 1L << (carril - 1);
+    long actual;
+    do {
+      actual = bits.get(i);
+    } while (!bits.compareAndSet(i, actual, actual & ~bit));
+    despertar(segmento);
+  }
+
+  private void despertar(int segmento) {
+    Thread hilo = esperando[segmento - 1].peek();
+    if (hilo != null)
+      LockSupport.unpark(hilo);
+  }
+
+  // Aparca al hilo hasta que consigue un carril del segmento. El hilo
+  // se pone en la cola antes de reintentar, de modo que quien libere
+  // un carril después del último intento lo verá y lo despertará.
+  private int esperarCarril(int segmento) {
+    Thread yo = Thread.currentThread();
+    Queue<Thread> cola = esperando[segmento - 1];
+    cola.add(yo);
+    try {
+      while (true) {
+        int carril = reclamar(segmento);
+        if (carril != 0)
+          return carril;
+        LockSupport.park(this);
+      }
+    } finally {
+      cola.remove(yo);
+      // Si quedan carriles libres pasamos el aviso al siguiente, por si
+      // el desbloqueo iba dirigido a nosotros cuando ya no lo necesitábamos
+      if (hayLibre(segmento))
+        despertar(segmento);
+    }
+  }
+
+  private Coche buscar(String id) {
+    Coche coche = coches.get(id);
+    if (coche == null) {
+      throw new RuntimeException(new Exception("El coche no existe"));
+    }
+    return coche;
+  }
+}
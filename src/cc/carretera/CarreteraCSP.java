@@ -1,9 +1,11 @@
 package cc.carretera;
 
 import org.jcsp.lang.*;
+import org.jcsp.util.Buffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class CarreteraCSP implements Carretera {
+public class CarreteraCSP implements CarreteraMedida {
     private final int SEGMENTOS;
     private final int CARRILES;
 
@@ -14,36 +16,97 @@ public class CarreteraCSP implements Carretera {
     private final Any2OneChannel salirChan = Channel.any2one();
     private final Any2OneChannel tickChan = Channel.any2one();
 
+    // Respuesta a salir de un coche al que aún le quedan ticks
+    private static final Object SIGUE_CIRCULANDO = new Object();
+
+    // Métricas de congestión por segmento, las actualiza el proceso servidor
+    private final MetricasSegmentos metricas;
+
+    // Petición de cada coche en la carretera. Se reutiliza en todas sus
+    // llamadas, así que una llamada no crea objetos nuevos.
+    private final Map<String, Peticion> peticiones = new ConcurrentHashMap<>();
+
+    // Mensaje que un coche envía al servidor. Los campos del coche en la
+    // carretera solo los toca el proceso servidor; el coche los ve al
+    // leer la respuesta.
+    private static class Peticion {
+        final String id;
+        // El servidor contesta como mucho una vez por llamada y el coche
+        // no hace otra hasta leer la respuesta, así que con un hueco de
+        // buffer el servidor nunca se bloquea escribiendo a un coche.
+        final One2OneChannel resp = Channel.one2one(new Buffer(1));
+        int tks;
+
+        // Posición actual, null hasta que entra
+        Pos pos;
+        // Tick en el que acaba su segmento, o en el que pidió entrar
+        long plazo;
+        // Esperando en circulando a que venza su plazo
+        boolean esperaCirculando;
+        // Ha pedido avanzar antes de que venza su plazo
+        boolean esperaPlazo;
+
+        Peticion(String id) {
+            this.id = id;
+        }
+    }
+
     public CarreteraCSP(int segmentos, int carriles) {
         this.SEGMENTOS = segmentos;
         this.CARRILES = carriles;
+        Pos.reservar(segmentos, carriles);
+        this.metricas = new MetricasSegmentos(segmentos, carriles);
         new ProcessManager(new CarreteraProceso()).start(); // Inicia el proceso CSP
     }
 
     @Override
     public Pos entrar(String id, int tks) {
-        One2OneChannel resp = Channel.one2one();
-        entrarChan.out().write(new Object[] { id, tks, resp });
-        return (Pos) resp.in().read();
+        Peticion p = new Peticion(id);
+        if (peticiones.putIfAbsent(id, p) != null) {
+            throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+        }
+        p.tks = tks;
+        entrarChan.out().write(p);
+        return (Pos) p.resp.in().read();
     }
 
     @Override
     public Pos avanzar(String id, int tks) {
-        One2OneChannel resp = Channel.one2one();
-        avanzarChan.out().write(new Object[] { id, tks, resp });
-        return (Pos) resp.in().read();
+        Peticion p = buscar(id);
+        if (p.pos.getSegmento() >= SEGMENTOS) {
+            throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+        }
+        p.tks = tks;
+        avanzarChan.out().write(p);
+        return (Pos) p.resp.in().read();
     }
 
     @Override
     public void circulando(String id) {
-        One2OneChannel resp = Channel.one2one();
-        circulaChan.out().write(new Object[] { id, resp });
-        resp.in().read();
+        Peticion p = buscar(id);
+        circulaChan.out().write(p);
+        p.resp.in().read();
     }
 
     @Override
     public void salir(String id) {
-        salirChan.out().write(id);
+        Peticion p = buscar(id);
+        if (p.pos.getSegmento() != SEGMENTOS) {
+            throw new RuntimeException(new Exception("El coche no puede salir"));
+        }
+        salirChan.out().write(p);
+        if (p.resp.in().read() == SIGUE_CIRCULANDO) {
+            throw new RuntimeException(new Exception("El coche sigue circulando"));
+        }
+        peticiones.remove(id);
+    }
+
+    private Peticion buscar(String id) {
+        Peticion p = peticiones.get(id);
+        if (p == null) {
+            throw new RuntimeException(new Exception("El coche no existe"));
+        }
+        return p;
     }
 
     @Override
@@ -51,20 +114,29 @@ public class CarreteraCSP implements Carretera {
         tickChan.out().write(null);
     }
 
+    @Override
+    public MetricasSegmentos.Instantanea metricas() {
+        return metricas.instantanea();
+    }
+
     // Proceso principal de la carretera
     private class CarreteraProceso implements CSProcess {
-        private final Map<String, Pos> posiciones = new HashMap<>(); // posiciones actuales
-        private final Map<String, Integer> ticksRestantes = new HashMap<>(); // ticks que faltan
-        private final Map<Integer, Set<Integer>> ocupados = new HashMap<>(); // carriles ocupados por segmento
-        private final Queue<Object[]> esperaEntrar = new LinkedList<>();
-        private final Queue<Object[]> esperaAvanzar = new LinkedList<>();
-        private final Map<String, One2OneChannel> esperandoCirculando = new HashMap<>();
+        private final RuedaTemporal<Peticion> rueda = new RuedaTemporal<>(); // plazos pendientes
+        private final OcupacionCarriles ocupacion = new OcupacionCarriles(SEGMENTOS, CARRILES);
+        // Peticiones bloqueadas por falta de carril en cada segmento, en
+        // orden de llegada: las de entrar en la posición 1 y las de
+        // avanzar al segmento s en la posición s
+        private final ArrayDeque<Peticion>[] espera;
 
-        public void run() {
-            for (int i = 1; i <= SEGMENTOS; i++) {
-                ocupados.put(i, new HashSet<Integer>());
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        CarreteraProceso() {
+            espera = new ArrayDeque[SEGMENTOS + 1];
+            for (int s = 1; s <= SEGMENTOS; s++) {
+                espera[s] = new ArrayDeque<>();
             }
+        }
 
+        public void run() {
             AltingChannelInput[] entradas = {
                     tickChan.in(), entrarChan.in(), avanzarChan.in(), circulaChan.in(), salirChan.in()
             };
@@ -95,131 +167,104 @@ public class CarreteraCSP implements Carretera {
 
         private void procesarTick() {
             tickChan.in().read();
-            for (String id : new HashSet<>(ticksRestantes.keySet())) {
-                int nuevos = Math.max(0, ticksRestantes.get(id) - 1);
-                ticksRestantes.put(id, nuevos);
-                if (nuevos == 0 && esperandoCirculando.containsKey(id)) {
-                    esperandoCirculando.get(id).out().write(null);
-                    esperandoCirculando.remove(id);
-                }
+            // Solo los coches que terminan su segmento en este tick
+            rueda.avanzar(this::finSegmento);
+            metricas.tick(rueda.ahora());
+        }
+
+        private void finSegmento(Peticion p) {
+            if (p.esperaCirculando) {
+                p.esperaCirculando = false;
+                p.resp.out().write(null);
+            } else if (p.esperaPlazo) {
+                p.esperaPlazo = false;
+                solicitar(p, p.pos.getSegmento() + 1);
             }
-            intentarAvancesPendientes();
-            intentarEntradasPendientes();
         }
 
         private void procesarEntrar() {
-            Object[] msg = (Object[]) entrarChan.in().read();
-            String id = (String) msg[0];
-            int tks = (Integer) msg[1];
-            One2OneChannel resp = (One2OneChannel) msg[2];
-
-            if (intentarColocarEntrada(id, tks, resp))
-                return;
-            esperaEntrar.add(msg);
+            Peticion p = (Peticion) entrarChan.in().read();
+            p.plazo = rueda.ahora();
+            solicitar(p, 1);
         }
 
         private void procesarAvanzar() {
-            Object[] msg = (Object[]) avanzarChan.in().read();
-            String id = (String) msg[0];
-            int tks = (Integer) msg[1];
-            One2OneChannel resp = (One2OneChannel) msg[2];
-
-            if (intentarAvance(id, tks, resp))
-                return;
-            esperaAvanzar.add(msg);
+            Peticion p = (Peticion) avanzarChan.in().read();
+            if (rueda.restantes(p.plazo) > 0) {
+                // Se atiende cuando venza su plazo
+                p.esperaPlazo = true;
+            } else {
+                solicitar(p, p.pos.getSegmento() + 1);
+            }
         }
 
         private void procesarCirculando() {
-            Object[] msg = (Object[]) circulaChan.in().read();
-            String id = (String) msg[0];
-            One2OneChannel resp = (One2OneChannel) msg[1];
-
-            if (ticksRestantes.get(id) == 0) {
-                resp.out().write(null);
+            Peticion p = (Peticion) circulaChan.in().read();
+            if (rueda.restantes(p.plazo) == 0) {
+                p.resp.out().write(null);
             } else {
-                esperandoCirculando.put(id, resp);
+                p.esperaCirculando = true;
             }
         }
 
         private void procesarSalir() {
-            String id = (String) salirChan.in().read();
-            Pos pos = posiciones.get(id);
-            if (pos != null && ticksRestantes.get(id) == 0) {
-                ocupados.get(pos.getSegmento()).remove(pos.getCarril());
-                posiciones.remove(id);
-                ticksRestantes.remove(id);
-                intentarEntradasPendientes();
-                intentarAvancesPendientes();
+            Peticion p = (Peticion) salirChan.in().read();
+            if (rueda.restantes(p.plazo) > 0) {
+                p.resp.out().write(SIGUE_CIRCULANDO);
+                return;
             }
+            ocupacion.liberar(SEGMENTOS, p.pos.getCarril());
+            metricas.ocupacion(SEGMENTOS, ocupacion.ocupados(SEGMENTOS));
+            p.resp.out().write(null);
+            atender(SEGMENTOS);
         }
 
-        private void intentarEntradasPendientes() {
-            Queue<Object[]> nuevaCola = new LinkedList<>();
-            while (!esperaEntrar.isEmpty()) {
-                Object[] msg = esperaEntrar.poll();
-                String id = (String) msg[0];
-                int tks = (Integer) msg[1];
-                One2OneChannel resp = (One2OneChannel) msg[2];
-                if (!intentarColocarEntrada(id, tks, resp)) {
-                    nuevaCola.add(msg);
-                }
-            }
-            esperaEntrar.addAll(nuevaCola);
-        }
-
-        private boolean intentarColocarEntrada(String id, int tks, One2OneChannel resp) {
-            for (int c = 1; c <= CARRILES; c++) {
-                if (!ocupados.get(1).contains(c)) {
-                    Pos pos = new Pos(1, c);
-                    posiciones.put(id, pos);
-                    ticksRestantes.put(id, tks);
-                    ocupados.get(1).add(c);
-                    resp.out().write(pos);
-                    return true;
-                }
+        // Coloca al coche en el segmento si hay carril y si no lo pone a
+        // la cola del segmento. Si el coche deja libre un carril de su
+        // segmento anterior se atiende a quien espera en él.
+        private void solicitar(Peticion p, int segmento) {
+            if (!espera[segmento].isEmpty() || !ocupacion.hayLibre(segmento)) {
+                espera[segmento].add(p);
+                metricas.esperando(segmento, espera[segmento].size());
+                return;
             }
-            return false;
-        }
-
-        private void intentarAvancesPendientes() {
-            Queue<Object[]> nuevaCola = new LinkedList<>();
-            boolean huboCambio = false;
-            while (!esperaAvanzar.isEmpty()) {
-                Object[] msg = esperaAvanzar.poll();
-                String id = (String) msg[0];
-                int tks = (Integer) msg[1];
-                One2OneChannel resp = (One2OneChannel) msg[2];
-                if (!intentarAvance(id, tks, resp)) {
-                    nuevaCola.add(msg);
-                } else {
-                    huboCambio = true;
+            colocar(p, segmento);
+            if (segmento > 1)
+                atender(segmento - 1);
+        }
+
+        // Atiende en orden a las peticiones que esperan en un segmento
+        // en el que se ha liberado un carril. Cada avance concedido libera
+        // a su vez un carril del segmento anterior, así que se baja por la
+        // carretera hasta que un segmento no puede conceder nada.
+        private void atender(int segmento) {
+            for (int s = segmento; s >= 1; s--) {
+                ArrayDeque<Peticion> cola = espera[s];
+                boolean concedido = false;
+                while (!cola.isEmpty() && ocupacion.hayLibre(s)) {
+                    colocar(cola.poll(), s);
+                    concedido = true;
                 }
+                if (concedido)
+                    metricas.esperando(s, cola.size());
+                if (!concedido)
+                    return;
             }
-            esperaAvanzar.addAll(nuevaCola);
-            if (huboCambio)
-                intentarAvancesPendientes();
         }
 
-        private boolean intentarAvance(String id, int tks, One2OneChannel resp) {
-            Pos pos = posiciones.get(id);
-            if (ticksRestantes.get(id) > 0 || pos.getSegmento() >= SEGMENTOS) {
-                return false;
-            }
-            int sigSeg = pos.getSegmento() + 1;
-            for (int c = 1; c <= CARRILES; c++) {
-                if (!ocupados.get(sigSeg).contains(c)) {
-                    ocupados.get(pos.getSegmento()).remove(pos.getCarril());
-                    ocupados.get(sigSeg).add(c);
-                    Pos nueva = new Pos(sigSeg, c);
-                    posiciones.put(id, nueva);
-                    ticksRestantes.put(id, tks);
-                    resp.out().write(nueva);
-                    intentarEntradasPendientes();
-                    intentarAvancesPendientes();
-                    return true;
-                }
+        private void colocar(Peticion p, int segmento) {
+            if (segmento > 1) {
+                ocupacion.liberar(segmento - 1, p.pos.getCarril());
+                metricas.ocupacion(segmento - 1, ocupacion.ocupados(segmento - 1));
             }
-            return false;
+            int carril = ocupacion.primerLibre(segmento);
+            ocupacion.ocupar(segmento, carril);
+            metricas.ocupacion(segmento, ocupacion.ocupados(segmento));
+            // El coche podía pasar desde su plazo
+            metricas.concedido(segmento, p.plazo);
+            p.pos = Pos.of(segmento, carril);
+            p.plazo = rueda.programar(p, p.tks);
+            p.resp.out().write(p.pos);
         }
     }
 }
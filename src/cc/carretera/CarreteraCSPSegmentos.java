@@ -0,0 +1,290 @@
+package cc.carretera;
+
+import org.jcsp.lang.*;
+import org.jcsp.util.Buffer;
+import org.jcsp.util.InfiniteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Carretera CSP con un proceso servidor por segmento. Cada proceso es
+ * dueño de los carriles, los plazos y la cola de espera de su segmento,
+ * así que en una carretera larga los segmentos atienden a sus coches
+ * en paralelo en lugar de pasar todos por un único servidor.
+ *
+ * Un coche habla siempre con el segmento en el que está. Para avanzar,
+ * el segmento s comprueba el plazo del coche y se lo pasa al segmento
+ * s+1; cuando s+1 le da carril contesta al coche y avisa a s de que ese
+ * carril ha quedado libre. Los canales entre segmentos tienen buffer
+ * ilimitado, de modo que dos segmentos vecinos nunca se bloquean
+ * escribiéndose el uno al otro. tick() se reparte a todos los
+ * segmentos, que lo procesan a la vez.
+ *
+ * Cada segmento cuenta los ticks que ha recibido, y el segmento s los
+ * recibe antes que s+1. Por eso un coche que pasa a s+1 lleva el tick
+ * de s en ese momento y su plazo en s+1 se cuenta desde ahí: si no, un
+ * coche que s suelta con el tick N y que llega a s+1 antes de que este
+ * lo reciba recorrería s+1 con un tick de menos.
+ */
+public class CarreteraCSPSegmentos implements Carretera {
+    private final int SEGMENTOS;
+    private final int CARRILES;
+
+    // Operaciones de un coche
+    private static final int ENTRAR = 0;
+    private static final int AVANZAR = 1;
+    private static final int CIRCULANDO = 2;
+    private static final int SALIR = 3;
+
+    // Respuesta a salir de un coche al que aún le quedan ticks
+    private static final Object SIGUE_CIRCULANDO = new Object();
+
+    // Canales de cada segmento, el segmento s en la posición s
+    // Llamadas de los coches que están en el segmento (o entran en el 1)
+    private final Any2OneChannel[] llamadas;
+    // Coches que vienen del segmento anterior
+    private final One2OneChannel[] llegadas;
+    // Carriles que el segmento siguiente ha dejado libres en este
+    private final One2OneChannel[] liberados;
+    private final One2OneChannel[] ticks;
+
+    // Petición de cada coche en la carretera, reutilizada en todas sus llamadas
+    private final Map<String, Peticion> peticiones = new ConcurrentHashMap<>();
+
+    // Mensaje que un coche envía a su segmento. Los campos del coche en
+    // la carretera solo los toca el segmento en el que está.
+    private static class Peticion {
+        final String id;
+        final One2OneChannel resp = Channel.one2one(new Buffer(1));
+        int op;
+        int tks;
+
+        // Posición actual, null hasta que entra
+        Pos pos;
+        // Tick en el que acaba su segmento
+        long plazo;
+        // Tick del segmento anterior cuando se lo pasó a este
+        long desde;
+        // Esperando en circulando a que venza su plazo
+        boolean esperaCirculando;
+        // Ha pedido avanzar antes de que venza su plazo
+        boolean esperaPlazo;
+
+        Peticion(String id) {
+            this.id = id;
+        }
+    }
+
+    public CarreteraCSPSegmentos(int segmentos, int carriles) {
+        this.SEGMENTOS = segmentos;
+        this.CARRILES = carriles;
+        Pos.reservar(segmentos, carriles);
+        llamadas = new Any2OneChannel[segmentos + 1];
+        llegadas = new One2OneChannel[segmentos + 1];
+        liberados = new One2OneChannel[segmentos + 1];
+        ticks = new One2OneChannel[segmentos + 1];
+        CSProcess[] procesos = new CSProcess[segmentos];
+        for (int s = 1; s <= segmentos; s++) {
+            llamadas[s] = Channel.any2one();
+            llegadas[s] = Channel.one2one(new InfiniteBuffer());
+            liberados[s] = Channel.one2one(new InfiniteBuffer());
+            ticks[s] = Channel.one2one();
+        }
+        for (int s = 1; s <= segmentos; s++) {
+            procesos[s - 1] = new Segmento(s);
+        }
+        new ProcessManager(new Parallel(procesos)).start(); // Inicia los procesos CSP
+    }
+
+    @Override
+    public Pos entrar(String id, int tks) {
+        Peticion p = new Peticion(id);
+        if (peticiones.putIfAbsent(id, p) != null) {
+            throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+        }
+        p.op = ENTRAR;
+        p.tks = tks;
+        llamadas[1].out().write(p);
+        return (Pos) p.resp.in().read();
+    }
+
+    @Override
+    public Pos avanzar(String id, int tks) {
+        Peticion p = buscar(id);
+        int segmento = p.pos.getSegmento();
+        if (segmento >= SEGMENTOS) {
+            throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+        }
+        p.op = AVANZAR;
+        p.tks = tks;
+        llamadas[segmento].out().write(p);
+        return (Pos) p.resp.in().read();
+    }
+
+    @Override
+    public void circulando(String id) {
+        Peticion p = buscar(id);
+        p.op = CIRCULANDO;
+        llamadas[p.pos.getSegmento()].out().write(p);
+        p.resp.in().read();
+    }
+
+    @Override
+    public void salir(String id) {
+        Peticion p = buscar(id);
+        if (p.pos.getSegmento() != SEGMENTOS) {
+            throw new RuntimeException(new Exception("El coche no puede salir"));
+        }
+        p.op = SALIR;
+        llamadas[SEGMENTOS].out().write(p);
+        if (p.resp.in().read() == SIGUE_CIRCULANDO) {
+            throw new RuntimeException(new Exception("El coche sigue circulando"));
+        }
+        peticiones.remove(id);
+    }
+
+    private Peticion buscar(String id) {
+        Peticion p = peticiones.get(id);
+        if (p == null) {
+            throw new RuntimeException(new Exception("El coche no existe"));
+        }
+        return p;
+    }
+
+    @Override
+    public void tick() {
+        // Cuando vuelve todos los segmentos han recibido el tick; cada
+        // uno lo procesa en paralelo con los demás
+        for (int s = 1; s <= SEGMENTOS; s++) {
+            ticks[s].out().write(null);
+        }
+    }
+
+    // Proceso de un segmento
+    private class Segmento implements CSProcess {
+        private final int segmento;
+        private final RuedaTemporal<Peticion> rueda = new RuedaTemporal<>(); // plazos pendientes
+        private final OcupacionCarriles ocupacion = new OcupacionCarriles(1, CARRILES);
+        // Coches esperando carril en este segmento, en orden de llegada
+        private final ArrayDeque<Peticion> espera = new ArrayDeque<>();
+
+        Segmento(int segmento) {
+            this.segmento = segmento;
+        }
+
+        public void run() {
+            AltingChannelInput[] entradas = {
+                    ticks[segmento].in(), liberados[segmento].in(),
+                    llegadas[segmento].in(), llamadas[segmento].in()
+            };
+
+            Alternative alt = new Alternative(entradas);
+
+            while (true) {
+                int index = alt.select();
+                switch (index) {
+                    case 0:
+                        procesarTick();
+                        break; // reloj
+                    case 1:
+                        procesarLiberado();
+                        break; // el segmento siguiente deja un carril libre
+                    case 2:
+                        solicitar((Peticion) llegadas[segmento].in().read());
+                        break; // coche del segmento anterior
+                    case 3:
+                        procesarLlamada();
+                        break; // llamada de un coche
+                }
+            }
+        }
+
+        private void procesarTick() {
+            ticks[segmento].in().read();
+            rueda.avanzar(this::finSegmento);
+        }
+
+        private void finSegmento(Peticion p) {
+            if (p.esperaCirculando) {
+                p.esperaCirculando = false;
+                p.resp.out().write(null);
+            } else if (p.esperaPlazo) {
+                p.esperaPlazo = false;
+                pasar(p);
+            }
+        }
+
+        private void procesarLiberado() {
+            int carril = (Integer) liberados[segmento].in().read();
+            ocupacion.liberar(1, carril);
+            atender();
+        }
+
+        private void procesarLlamada() {
+            Peticion p = (Peticion) llamadas[segmento].in().read();
+            switch (p.op) {
+                case ENTRAR:
+                    solicitar(p);
+                    break;
+                case AVANZAR:
+                    if (rueda.restantes(p.plazo) > 0) {
+                        // Se pasa al siguiente segmento cuando venza su plazo
+                        p.esperaPlazo = true;
+                    } else {
+                        pasar(p);
+                    }
+                    break;
+                case CIRCULANDO:
+                    if (rueda.restantes(p.plazo) == 0) {
+                        p.resp.out().write(null);
+                    } else {
+                        p.esperaCirculando = true;
+                    }
+                    break;
+                case SALIR:
+                    if (rueda.restantes(p.plazo) > 0) {
+                        p.resp.out().write(SIGUE_CIRCULANDO);
+                        break;
+                    }
+                    ocupacion.liberar(1, p.pos.getCarril());
+                    p.resp.out().write(null);
+                    atender();
+                    break;
+            }
+        }
+
+        // Pasa el coche al segmento siguiente con el tick de este
+        private void pasar(Peticion p) {
+            p.desde = rueda.ahora();
+            llegadas[segmento + 1].out().write(p);
+        }
+
+        private void solicitar(Peticion p) {
+            if (!espera.isEmpty() || !ocupacion.hayLibre(1)) {
+                espera.add(p);
+                return;
+            }
+            colocar(p);
+        }
+
+        private void atender() {
+            while (!espera.isEmpty() && ocupacion.hayLibre(1)) {
+                colocar(espera.poll());
+            }
+        }
+
+        private void colocar(Peticion p) {
+            Pos anterior = p.pos;
+            int carril = ocupacion.primerLibre(1);
+            ocupacion.ocupar(1, carril);
+            p.pos = Pos.of(segmento, carril);
+            // Desde el tick del segmento anterior si este aún no lo ha recibido
+            long retraso = Math.max(0, p.desde - rueda.ahora());
+            p.plazo = rueda.programar(p, (int) retraso + p.tks);
+            p.resp.out().write(p.pos);
+            // A partir de aquí el coche es de este segmento
+            if (anterior != null)
+                liberados[segmento - 1].out().write(anterior.getCarril());
+        }
+    }
+}
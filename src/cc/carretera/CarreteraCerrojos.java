@@ -0,0 +1,192 @@
+package cc.carretera;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementación del recurso compartido Carretera con un cerrojo por
+ * segmento. Cada segmento guarda sus carriles, una condición para los
+ * coches que esperan un carril libre en él y una condición por carril
+ * para el coche que circula por ese carril. Así un coche del segmento 1
+ * no bloquea a uno que sale del último.
+ *
+ * avanzar toma los cerrojos de los dos segmentos implicados siempre en
+ * orden creciente; si tiene que esperar suelta el del segmento actual
+ * y espera solo con el del siguiente. tick recorre los segmentos uno a
+ * uno, sin una sección crítica global, del último al primero: un coche
+ * al que el tick deja sin ticks en un segmento solo puede avanzar a uno
+ * que ya lo ha recibido, así que no se le descuenta dos veces.
+ */
+public class CarreteraCerrojos implements Carretera {
+  private final int SEGMENTOS;
+  private final int CARRILES;
+
+  // Segmentos de la carretera, el segmento s está en la posición s-1
+  private final Segmento[] segmentos;
+
+  // Coches en la carretera
+  private final Map<String, Coche> coches;
+
+  // Estado de un coche. Sus campos se modifican con el cerrojo del
+  // segmento en el que está el coche.
+  private static class Coche {
+    int segmento;
+    int carril;
+    int ticks;
+  }
+
+  private class Segmento {
+    final ReentrantLock cerrojo = new ReentrantLock();
+    // Esperan los coches que quieren entrar en el segmento
+    final Condition hayCarril = cerrojo.newCondition();
+    // Espera en circulando el coche de cada carril
+    final Condition[] finCarril = new Condition[CARRILES];
+    // Coche que ocupa cada carril o null
+    final Coche[] enCarril = new Coche[CARRILES];
+    final OcupacionCarriles ocupacion = new OcupacionCarriles(1, CARRILES);
+
+    Segmento() {
+      for (int c = 0; c < CARRILES; c++) {
+        finCarril[c] = cerrojo.newCondition();
+      }
+    }
+
+    // Coloca al coche en el carril libre más bajo, con el cerrojo tomado
+    Pos ocupar(int segmento, Coche coche, int tks) {
+      int carril = ocupacion.primerLibre(1);
+      ocupacion.ocupar(1, carril);
+      enCarril[carril - 1] = coche;
+      coche.segmento = segmento;
+      coche.carril = carril;
+      coche.ticks = tks;
+      return Pos.of(segmento, carril);
+    }
+
+    // Quita al coche de su carril, con el cerrojo tomado
+    void liberar(Coche coche) {
+      ocupacion.liberar(1, coche.carril);
+      enCarril[coche.carril - 1] = null;
+      hayCarril.signal();
+    }
+  }
+
+  public CarreteraCerrojos(int segmentos, int carriles) {
+    this.SEGMENTOS = segmentos;
+    this.CARRILES = carriles;
+    Pos.reservar(segmentos, carriles);
+    this.coches = new ConcurrentHashMap<>();
+    this.segmentos = new Segmento[segmentos];
+    for (int s = 0; s < segmentos; s++) {
+      this.segmentos[s] = new Segmento();
+    }
+  }
+
+  public Pos entrar(String id, int tks) {
+    Coche coche = new Coche();
+    if (coches.putIfAbsent(id, coche) != null) {
+      throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+    }
+    Segmento primero = segmentos[0];
+    primero.cerrojo.lock();
+    try {
+      while (!primero.ocupacion.hayLibre(1)) {
+        primero.hayCarril.awaitUninterruptibly();
+      }
+      return primero.ocupar(1, coche, tks);
+    } finally {
+      primero.cerrojo.unlock();
+    }
+  }
+
+  public Pos avanzar(String id, int tks) {
+    Coche coche = buscar(id);
+    int segmentoActual = coche.segmento;
+    if (segmentoActual >= SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+    }
+    Segmento actual = segmentos[segmentoActual - 1];
+    Segmento siguiente = segmentos[segmentoActual];
+    while (true) {
+      // Siempre en orden creciente de segmento
+      actual.cerrojo.lock();
+      siguiente.cerrojo.lock();
+      try {
+        if (coche.ticks != 0) {
+          throw new RuntimeException(new Exception("El coche sigue circulando"));
+        }
+        if (siguiente.ocupacion.hayLibre(1)) {
+          actual.liberar(coche);
+          return siguiente.ocupar(segmentoActual + 1, coche, tks);
+        }
+        // Esperamos solo con el cerrojo del siguiente segmento y
+        // volvemos a tomar los dos en orden antes de reintentar
+        actual.cerrojo.unlock();
+        siguiente.hayCarril.awaitUninterruptibly();
+      } finally {
+        if (actual.cerrojo.isHeldByCurrentThread())
+          actual.cerrojo.unlock();
+        siguiente.cerrojo.unlock();
+      }
+    }
+  }
+
+  public void circulando(String id) {
+    Coche coche = buscar(id);
+    Segmento segmento = segmentos[coche.segmento - 1];
+    segmento.cerrojo.lock();
+    try {
+      while (coche.ticks > 0) {
+        segmento.finCarril[coche.carril - 1].awaitUninterruptibly();
+      }
+    } finally {
+      segmento.cerrojo.unlock();
+    }
+  }
+
+  public void salir(String id) {
+    Coche coche = buscar(id);
+    if (coche.segmento != SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede salir"));
+    }
+    Segmento ultimo = segmentos[SEGMENTOS - 1];
+    ultimo.cerrojo.lock();
+    try {
+      if (coche.ticks != 0) {
+        throw new RuntimeException(new Exception("El coche sigue circulando"));
+      }
+      ultimo.liberar(coche);
+    } finally {
+      ultimo.cerrojo.unlock();
+    }
+    coches.remove(id);
+  }
+
+  public void tick() {
+    // Segmento a segmento, del último al primero: cada uno se actualiza
+    // en su propia sección crítica
+    for (int s = SEGMENTOS - 1; s >= 0; s--) {
+      Segmento segmento = segmentos[s];
+      segmento.cerrojo.lock();
+      try {
+        for (int c = 0; c < CARRILES; c++) {
+          Coche coche = segmento.enCarril[c];
+          if (coche != null && coche.ticks > 0 && --coche.ticks == 0) {
+            segmento.finCarril[c].signal();
+          }
+        }
+      } finally {
+        segmento.cerrojo.unlock();
+      }
+    }
+  }
+
+  private Coche buscar(String id) {
+    Coche coche = coches.get(id);
+    if (coche == null) {
+      throw new RuntimeException(new Exception("El coche no existe"));
+    }
+    return coche;
+  }
+}
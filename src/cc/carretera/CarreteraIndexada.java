@@ -0,0 +1,67 @@
+package cc.carretera;
+
+/**
+ * Carretera en la que cada coche se identifica con un entero compacto
+ * (manejador) en lugar de con un String. El coche se registra una vez
+ * con su identificador y las demás operaciones reciben el manejador,
+ * de modo que la implementación puede guardar el estado de los coches
+ * en arrays en vez de en mapas indexados por String.
+ *
+ * Las operaciones con String de Carretera se mantienen como un
+ * adaptador que busca el manejador del coche y llama a la operación
+ * correspondiente.
+ */
+public interface CarreteraIndexada extends Carretera {
+  /**
+   * Registra un coche que va a entrar en la carretera.
+   *
+   * @param id identificador del coche
+   *
+   * @return manejador del coche, válido hasta que el coche sale
+   */
+  int registrar(String id);
+
+  /**
+   * Manejador de un coche registrado.
+   *
+   * @param id identificador del coche
+   */
+  int manejador(String id);
+
+  /**
+   * Como entrar(String, int) para un coche ya registrado.
+   */
+  Pos entrar(int coche, int tks);
+
+  /**
+   * Como avanzar(String, int).
+   */
+  Pos avanzar(int coche, int tks);
+
+  /**
+   * Como circulando(String).
+   */
+  void circulando(int coche);
+
+  /**
+   * Como salir(String). Después de salir el manejador puede asignarse
+   * a otro coche.
+   */
+  void salir(int coche);
+
+  default Pos entrar(String id, int tks) {
+    return entrar(registrar(id), tks);
+  }
+
+  default Pos avanzar(String id, int tks) {
+    return avanzar(manejador(id), tks);
+  }
+
+  default void circulando(String id) {
+    circulando(manejador(id));
+  }
+
+  default void salir(String id) {
+    salir(manejador(id));
+  }
+}
@@ -0,0 +1,96 @@
+package cc.carretera;
+
+/**
+ * Envoltorio de cualquier Carretera que mide cuánto tarda cada llamada
+ * a entrar, avanzar, circulando, salir y tick, incluido el tiempo que
+ * el coche pasa bloqueado. Cada operación tiene su Histograma, así que
+ * medir cuesta dos lecturas de System.nanoTime y un incremento atómico
+ * por llamada.
+ */
+public class CarreteraInstrumentada implements Carretera {
+  private final Carretera cr;
+
+  public final Histograma entrar = new Histograma();
+  public final Histograma avanzar = new Histograma();
+  public final Histograma circulando = new Histograma();
+  public final Histograma salir = new Histograma();
+  public final Histograma tick = new Histograma();
+
+  public CarreteraInstrumentada(Carretera cr) {
+    this.cr = cr;
+  }
+
+  /**
+   * Carretera envuelta.
+   */
+  public Carretera carretera() {
+    return cr;
+  }
+
+  public Pos entrar(String id, int tks) {
+    long inicio = System.nanoTime();
+    try {
+      return cr.entrar(id, tks);
+    } finally {
+      entrar.registrar(System.nanoTime() - inicio);
+    }
+  }
+
+  public Pos avanzar(String id, int tks) {
+    long inicio = System.nanoTime();
+    try {
+      return cr.avanzar(id, tks);
+    } finally {
+      avanzar.registrar(System.nanoTime() - inicio);
+    }
+  }
+
+  public void circulando(String id) {
+    long inicio = System.nanoTime();
+    try {
+      cr.circulando(id);
+    } finally {
+      circulando.registrar(System.nanoTime() - inicio);
+    }
+  }
+
+  public void salir(String id) {
+    long inicio = System.nanoTime();
+    try {
+      cr.salir(id);
+    } finally {
+      salir.registrar(System.nanoTime() - inicio);
+    }
+  }
+
+  public void tick() {
+    long inicio = System.nanoTime();
+    try {
+      cr.tick();
+    } finally {
+      tick.registrar(System.nanoTime() - inicio);
+    }
+  }
+
+  /**
+   * Percentiles de latencia de cada operación, una por línea.
+   */
+  public String resumen() {
+    return "entrar:     " + entrar.instantanea() + "\n"
+      + "avanzar:    " + avanzar.instantanea() + "\n"
+      + "circulando: " + circulando.instantanea() + "\n"
+      + "salir:      " + salir.instantanea() + "\n"
+      + "tick:       " + tick.instantanea();
+  }
+
+  /**
+   * Vacía los histogramas, por ejemplo tras un calentamiento.
+   */
+  public void reiniciar() {
+    entrar.reiniciar();
+    avanzar.reiniciar();
+    circulando.reiniciar();
+    salir.reiniciar();
+    tick.reiniciar();
+  }
+}
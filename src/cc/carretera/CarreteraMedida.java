@@ -0,0 +1,12 @@
+package cc.carretera;
+
+/**
+ * Carretera que lleva métricas de congestión de sus segmentos (ver
+ * MetricasSegmentos).
+ */
+public interface CarreteraMedida extends Carretera {
+  /**
+   * Métricas de cada segmento en este instante.
+   */
+  MetricasSegmentos.Instantanea metricas();
+}
@@ -1,63 +1,116 @@
 // Nunca cambia la declaracion del package!
 package cc.carretera;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import es.upm.aedlib.Pair;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
 import es.upm.babel.cclib.Monitor;
 import es.upm.babel.cclib.Monitor.Cond;
 
 /**
- * Implementación del recurso compartido Carretera con Monitores
+ * Implementación del recurso compartido Carretera con Monitores. Los
+ * coches se identifican con manejadores enteros (ver CarreteraIndexada)
+ * que indexan directamente los arrays de estado. Lleva las metricas de
+ * congestion de cada segmento (ver CarreteraMedida).
  */
-public class CarreteraMonitor implements Carretera {
+public class CarreteraMonitor implements CarreteraIndexada, CarreteraMedida {
 	private final int SEGMENTOS;
 	private final int CARRILES;
-	//Mapa que contiene los coches que estan circulando en la carretera
-	private final Map<String, Pair<Pos, Integer>> coches;
+	//Manejador de cada coche registrado
+	private final Manejadores manejadores;
+	//Estado de los coches indexado por manejador: su posicion (null si no esta en la carretera)
+	//y el tick en el que llega al final de su segmento (plazo). Crecen cuando hace falta.
+	private Pos posiciones[];
+	private long plazos[];
+	//Rueda temporal con los plazos de los coches, tick() solo mira los que vencen
+	private final RuedaTemporal<Cond> rueda;
+	//Lo que hace tick() con cada coche que llega al final de su segmento
+	private final Consumer<Cond> alVencer;
+	//Carriles ocupados de cada segmento, se actualiza al entrar, avanzar y salir
+	private final OcupacionCarriles ocupacion;
 	//Monitores
 	private Monitor mutex;
 	//Un condiional para cada segmento para organizar entrar y avanzar y poder comprobar facilmente si hay carriles libres por segmento
 	private final Monitor.Cond condSegmentos[];
-	//Un condicional para cada coche para poder comprobar los ticks y hacer el signal al coche que queremos que deje de circular
-	private final Map<String, Monitor.Cond> condCoches;
+	//Un condicional para cada coche para poder comprobar los ticks y hacer el signal al coche que queremos que deje de circular.
+	//Se crea la primera vez que se usa el manejador y se reutiliza con los siguientes coches que lo reciban.
+	private Monitor.Cond condCoches[];
+	//Segmentos en los que se ha liberado un carril y que pueden tener coches esperando para entrar en ellos
+	private final ArrayDeque<Integer> segmentosLiberados;
+	private final boolean enLiberados[];
+	//Coches esperando en circulando cuyos ticks acaban de llegar a 0
+	private final ArrayDeque<Cond> cochesListos;
+	//Metricas de congestion por segmento, se actualizan dentro del monitor
+	private final MetricasSegmentos metricas;
 
 
 	public CarreteraMonitor(int segmentos, int carriles) {
 		//Inicializamos los atributos
 		this.SEGMENTOS = segmentos;
 		this.CARRILES = carriles;
+		Pos.reservar(segmentos, carriles);
 		mutex = new Monitor();
-		//Coches y ConCoches empiezan vacios y se les añaden elementos cuando un coche entra
-		coches = new HashMap<>();
-		condCoches = new HashMap<>();
+		//Los arrays de coches empiezan vacios y crecen segun se registran coches
+		manejadores = new Manejadores();
+		posiciones = new Pos[16];
+		plazos = new long[16];
+		condCoches = new Monitor.Cond[16];
+		ocupacion = new OcupacionCarriles(SEGMENTOS, CARRILES);
+		segmentosLiberados = new ArrayDeque<>();
+		enLiberados = new boolean[SEGMENTOS];
+		cochesListos = new ArrayDeque<>();
+		metricas = new MetricasSegmentos(SEGMENTOS, CARRILES);
+		rueda = new RuedaTemporal<>();
+		//Si el coche esta esperando en circulando hay que despertarlo
+		alVencer = condicional -> {
+			if(condicional.waiting() > 0) {
+				cochesListos.add(condicional);
+			}
+		};
 		condSegmentos = new Monitor.Cond[SEGMENTOS];
 		for(int i = 0; i < SEGMENTOS; i++) {
 			condSegmentos[i]= mutex.newCond();
 		}
 	}
 
-	public Pos entrar(String id, int tks) {
-		//Comprobamos PRE
-		if(coches.containsKey(id)) {
-			throw new RuntimeException (new Exception ("El coche ya se encuentra en la carretera"));
+	public int registrar(String id) {
+		return manejadores.registrar(id);
+	}
+
+	public int manejador(String id) {
+		int coche = manejadores.buscar(id);
+		if(coche < 0) {
+			throw new RuntimeException (new Exception ("El coche no existe"));
 		}
+		return coche;
+	}
+
+	public Pos entrar(int coche, int tks) {
+		//Comprobamos PRE dentro del monitor: los arrays de coches pueden estar creciendo
 		mutex.enter();
+		if(enCarretera(coche)) {
+			mutex.leave();
+			throw new RuntimeException (new Exception ("El coche ya se encuentra en la carretera"));
+		}
+		//Hacemos sitio para el manejador y creamos su condicional si es la primera vez que se usa
+		asegurarCapacidad(coche);
+		if(condCoches[coche] == null) {
+			condCoches[coche] = mutex.newCond();
+		}
 		//Comprobamos CPRE si no se cumple hacemos await del primer segmento porque esta lleno
-		if(carrilesLibres(1).isEmpty()) {
+		long llegada = rueda.ahora();
+		if(!ocupacion.hayLibre(1)) {
+			metricas.esperando(1, condSegmentos[0].waiting() + 1);
 			condSegmentos[0].await();
 		}
-		//Nuevo carril al que va a entrar el coche
-		int nuevoCarril = carrilesLibres(1).iterator().next();
-		//Creamos la posicion y la añadimos al mapa de coches con su id para identificarlo
-		Pos nuevaPosicion = new Pos(1,nuevoCarril);
-		coches.put(id,new Pair<>(nuevaPosicion,tks));
-		//Creamos el condicional del coche y lo añadimos al mapa de condicionales de coches
-		Cond condicional = mutex.newCond();
-		condCoches.put(id, condicional);
+		//Nuevo carril al que va a entrar el coche (el libre mas bajo)
+		int nuevoCarril = ocupacion.primerLibre(1);
+		ocupacion.ocupar(1, nuevoCarril);
+		medirConcesion(1, llegada);
+		//Creamos la posicion y la guardamos con el plazo del coche
+		Pos nuevaPosicion = Pos.of(1,nuevoCarril);
+		posiciones[coche] = nuevaPosicion;
+		plazos[coche] = rueda.programar(condCoches[coche], tks);
 		//desbloqueo para los metodos que estan esperando un signal
 		desbloqueo();
 		mutex.leave();
@@ -66,28 +119,40 @@ public class CarreteraMonitor implements Carretera {
 	}
 
 
-	public Pos avanzar(String id, int tks) {
-		//Las tres condiciones del PRE
-		if(!coches.containsKey(id)){
+	public Pos avanzar(int coche, int tks) {
+		//Las tres condiciones del PRE, dentro del monitor
+		mutex.enter();
+		if(!enCarretera(coche)){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche no existe"));
 		}
-		int segmentoActual=coches.get(id).getLeft().getSegmento();
+		Pos posicionActual = posiciones[coche];
+		int segmentoActual=posicionActual.getSegmento();
 		if(segmentoActual>=SEGMENTOS){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche no puede avanzar más"));
 		}
-		if(coches.get(id).getRight()!=0){
+		if(rueda.restantes(plazos[coche])!=0){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche sigue circulando"));
 		}
-		mutex.enter();
 		//Comprobamos CPRE y sino se cumple hacemos await
-		if(carrilesLibres(segmentoActual+1).isEmpty()) {
+		if(!ocupacion.hayLibre(segmentoActual+1)) {
+			metricas.esperando(segmentoActual+1, condSegmentos[segmentoActual].waiting() + 1);
 			condSegmentos[segmentoActual].await();
 		}
-		//Nuevo carril al que va a avanzar
-		int nuevoCarril = carrilesLibres(segmentoActual+1).iterator().next();
-		//Creamos su nueva posicion y la añadimos al mapa de coches
-		Pos nuevaPosicion = new Pos(segmentoActual+1,nuevoCarril);
-		coches.put(id,new Pair<>(nuevaPosicion,tks));
+		//Nuevo carril al que va a avanzar, liberamos el que ocupaba
+		int nuevoCarril = ocupacion.primerLibre(segmentoActual+1);
+		ocupacion.liberar(segmentoActual, posicionActual.getCarril());
+		ocupacion.ocupar(segmentoActual+1, nuevoCarril);
+		liberado(segmentoActual);
+		metricas.ocupacion(segmentoActual, ocupacion.ocupados(segmentoActual));
+		//El coche podia pasar desde que vencio su plazo
+		medirConcesion(segmentoActual+1, plazos[coche]);
+		//Creamos su nueva posicion y la guardamos con su nuevo plazo
+		Pos nuevaPosicion = Pos.of(segmentoActual+1,nuevoCarril);
+		posiciones[coche] = nuevaPosicion;
+		plazos[coche] = rueda.programar(condCoches[coche], tks);
 		//desbloqueo de awaits
 		desbloqueo();
 		mutex.leave();
@@ -95,100 +160,116 @@ public class CarreteraMonitor implements Carretera {
 		return nuevaPosicion;
 	}
 
-	public void circulando(String id) {
-		//Comprobamos PRE
-		if(!coches.containsKey(id)){
+	public void circulando(int coche) {
+		//Comprobamos PRE dentro del monitor
+		mutex.enter();
+		if(!enCarretera(coche)){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche no existe"));
 		}
-		mutex.enter();
 		//Comprobamos CPRE y si no se cumple await
-		if(coches.get(id).getRight()!=0) {
-			condCoches.get(id).await();
+		if(rueda.restantes(plazos[coche])!=0) {
+			condCoches[coche].await();
 		}
 		//desbloqueamos awaits
 		desbloqueo();
 		mutex.leave();
 	}
 
-	public void salir(String id) {
-		//Comprobamos las tres condiciones del PRE
-		if(!coches.containsKey(id)){
+	public void salir(int coche) {
+		//Comprobamos las tres condiciones del PRE, dentro del monitor
+		mutex.enter();
+		if(!enCarretera(coche)){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche no existe"));
 		}
-		int segmentoActual=coches.get(id).getLeft().getSegmento();
+		Pos posicionActual = posiciones[coche];
+		int segmentoActual=posicionActual.getSegmento();
 		if(segmentoActual!=SEGMENTOS){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche no puede salir"));
 		}
-		if(coches.get(id).getRight()!=0){
+		if(rueda.restantes(plazos[coche])!=0){
+			mutex.leave();
 			throw new RuntimeException (new Exception ("El coche sigue circulando"));
 		}
 		//No tiene CPRE un coche siempre puede salir
-		mutex.enter();
-		//Lo eliminamos de ambos mapas
-		coches.remove(id);
-		condCoches.remove(id);
+		//Liberamos su carril y lo quitamos de la carretera
+		ocupacion.liberar(segmentoActual, posicionActual.getCarril());
+		liberado(segmentoActual);
+		metricas.ocupacion(segmentoActual, ocupacion.ocupados(segmentoActual));
+		posiciones[coche] = null;
 		//desbloqueamos
 		desbloqueo();
 		mutex.leave();
+		//El manejador queda libre para otro coche
+		manejadores.liberar(coche);
 	}
 
 	public void tick() {
 		//No tiene PRE ni CPRE
 		mutex.enter();
-		//Vamos coche por coche cambiando sus ticks por uno menos siempre que sean mayores que 0
-		for(Entry<String, Pair<Pos, Integer>> coche:coches.entrySet()) {
-			int nuevosTicks = Math.max(coche.getValue().getRight()-1,0);
-			coche.getValue().setRight(nuevosTicks);
-		}
+		//Avanza el reloj de la rueda, solo se tratan los coches cuyos ticks acaban de llegar a 0
+		rueda.avanzar(alVencer);
+		metricas.tick(rueda.ahora());
 		//desbloqueamos
 		desbloqueo();
 		mutex.leave();
 	}
-	//Metodo auxiliar para ver los carriles libres en un segmento
-	private Set<Integer> carrilesLibres(int segmento) {
-		//creamos un set de enteros los carriles ocupados (cada entero hace referencia a un carril)
-		Set<Integer> ocupados = new HashSet<>();
-		//Vamos coche por coche
-		for(Entry<String, Pair<Pos, Integer>> coche : coches.entrySet()) {
-			//Si el segmento es el mismo que el pedido añadimos el numero del carril a ocupados
-			if (coche.getValue().getLeft().getSegmento() == segmento) {
-				ocupados.add(coche.getValue().getLeft().getCarril());
-			}
+	public MetricasSegmentos.Instantanea metricas() {
+		return metricas.instantanea();
+	}
+	//Metodo auxiliar para apuntar en las metricas que se ha concedido un carril del segmento
+	//a un coche que podia pasar desde el tick desde (dentro del monitor)
+	private void medirConcesion(int segmento, long desde) {
+		metricas.ocupacion(segmento, ocupacion.ocupados(segmento));
+		metricas.esperando(segmento, condSegmentos[segmento-1].waiting());
+		metricas.concedido(segmento, desde);
+	}
+	//Metodo auxiliar para saber si el manejador es de un coche que esta en la carretera (dentro del monitor)
+	private boolean enCarretera(int coche) {
+		return coche >= 0 && coche < posiciones.length && posiciones[coche] != null;
+	}
+	//Metodo auxiliar para que los arrays de coches tengan sitio para el manejador (dentro del monitor)
+	private void asegurarCapacidad(int coche) {
+		if(coche >= posiciones.length) {
+			int capacidad = Math.max(coche + 1, 2 * posiciones.length);
+			posiciones = Arrays.copyOf(posiciones, capacidad);
+			plazos = Arrays.copyOf(plazos, capacidad);
+			condCoches = Arrays.copyOf(condCoches, capacidad);
 		}
-		//creamos set libres
-		Set<Integer> libres = new HashSet<>();
-		//comprobamos carril por carril que no este en ocupados
-		for (int c = 1; c <= CARRILES; c++) {
-			if (!ocupados.contains(c)) {
-				//si no esta en ocupados lo añadimos a libres
-				libres.add(c);
-			}
+	}
+	//Metodo auxiliar para apuntar que un segmento tiene un carril libre mas
+	private void liberado(int segmento) {
+		if(!enLiberados[segmento-1]) {
+			enLiberados[segmento-1]=true;
+			segmentosLiberados.add(segmento);
 		}
-		//devolvemos los carriles libres
-		return libres;
 	}
-	//Metodo auxiliar para desbloquear los awaits mas facil
+	//Metodo auxiliar para desbloquear los awaits mas facil. El monitor solo admite un signal
+	//pendiente, asi que se despierta a un solo coche y este, al terminar su operacion, vuelve a
+	//llamar a desbloqueo() para despertar al siguiente. Solo se miran los segmentos que han
+	//liberado algun carril y los coches cuyos ticks han llegado a 0, no toda la carretera.
 	public void desbloqueo() {
-		//booleano para solo hacer un signal por vez
-		boolean desbloqueado=false;
-		
-		//recorremos segmento por segmento (sirve para entrar (condSegmentos[0]) y los demás para avanzar)
-		for(int i = 1; i <= SEGMENTOS && !desbloqueado; i++) {
-			//Si el segmento tiene carriles libres lo desbloqueamos para que un coche pueda avanzar a ese segmento
-			//como carriles libres empieza en 1 y condSegmentos en 0 ponemos i-1
-			if(!carrilesLibres(i).isEmpty()&&condSegmentos[i-1].waiting()>0&&!desbloqueado) {
-				//Desbloqueamos y ponemos desbloqueado en true para salir del bucle
+		//primero los segmentos con carriles liberados (condSegmentos[0] es entrar y los demás avanzar)
+		while(!segmentosLiberados.isEmpty()) {
+			int i = segmentosLiberados.peek();
+			//como los segmentos empiezan en 1 y condSegmentos en 0 ponemos i-1
+			if(ocupacion.hayLibre(i)&&condSegmentos[i-1].waiting()>0) {
+				//Lo dejamos en la lista: el coche despertado volvera a mirarlo cuando ocupe su carril
 				condSegmentos[i-1].signal();
-				desbloqueado=true;
+				return;
 			}
+			segmentosLiberados.poll();
+			enLiberados[i-1]=false;
 		}
-		
-		//Vamos coche por coche viendo si sus ticks estan en 0 se usa para desbloquear circulando
-		for(Entry<String, Pair<Pos, Integer>> coche : coches.entrySet()) {
-			if(coche.getValue().getRight() == 0 && condCoches.get(coche.getKey()).waiting() > 0 && !desbloqueado) {
-				//desbloqueamos y ponemos desbloqueado a true
-				condCoches.get(coche.getKey()).signal();
-				desbloqueado=true;
+
+		//despues los coches que esperan en circulando y ya tienen los ticks a 0
+		while(!cochesListos.isEmpty()) {
+			Cond condicional = cochesListos.poll();
+			if(condicional.waiting() > 0) {
+				condicional.signal();
+				return;
 			}
 		}
 	}
@@ -0,0 +1,306 @@
+package cc.carretera;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementación del recurso compartido Carretera para carreteras muy
+ * largas: los segmentos se reparten en particiones contiguas y cada
+ * partición tiene su propio cerrojo, sus carriles y la lista de coches
+ * que le quedan ticks.
+ *
+ * Un coche que avanza dentro de su partición solo usa el cerrojo de
+ * esa partición. Al cruzar una frontera espera carril libre en el
+ * primer segmento de la partición siguiente, con solo el cerrojo de
+ * esa, y después deja su carril en la anterior: los carriles del
+ * primer segmento hacen de cola acotada entre las dos particiones y
+ * nunca se tienen dos cerrojos a la vez.
+ *
+ * tick da el tick de todas las particiones en paralelo (fork/join en
+ * el ForkJoinPool común) y cada partición solo recorre sus coches con
+ * ticks pendientes, no todos sus carriles. Un coche al que el tick deja
+ * sin ticks en una partición puede cruzar a la siguiente antes de que
+ * esta reciba el mismo tick; cada tick lleva un número y el coche
+ * recuerda el último que le ha descontado, así que no se le descuenta
+ * dos veces.
+ */
+public class CarreteraParticionada implements Carretera {
+  // Segmentos mínimos por partición al elegir cuántas hacer
+  private static final int SEGMENTOS_POR_PARTICION = 64;
+
+  private final int SEGMENTOS;
+  private final int CARRILES;
+
+  // Segmentos de cada partición (la última puede tener menos)
+  private final int tamano;
+  private final Particion[] particiones;
+
+  // Coches en la carretera
+  private final Map<String, Coche> coches;
+
+  // Número del último tick, solo lo cambia tick()
+  private long ticks = 0;
+
+  // Estado de un coche. Sus campos se modifican con el cerrojo de la
+  // partición en la que está el coche.
+  private static class Coche {
+    Particion particion;
+    int segmento;
+    int carril;
+    int ticks;
+    // Último tick que le ha descontado
+    long descontado;
+  }
+
+  private class Particion {
+    final int primero;
+    final int ultimo;
+    final ReentrantLock cerrojo = new ReentrantLock();
+    // Esperan los coches que quieren entrar en cada segmento
+    final Condition[] hayCarril;
+    // Espera en circulando el coche de cada carril de cada segmento
+    final Condition[] finCarril;
+    final OcupacionCarriles ocupacion;
+    // Coches a los que les quedan ticks
+    Coche[] activos = new Coche[16];
+    int numActivos = 0;
+
+    Particion(int primero, int ultimo) {
+      this.primero = primero;
+      this.ultimo = ultimo;
+      int n = ultimo - primero + 1;
+      hayCarril = new Condition[n];
+      finCarril = new Condition[n * CARRILES];
+      for (int s = 0; s < n; s++) {
+        hayCarril[s] = cerrojo.newCondition();
+      }
+      for (int i = 0; i < finCarril.length; i++) {
+        finCarril[i] = cerrojo.newCondition();
+      }
+      ocupacion = new OcupacionCarriles(n, CARRILES);
+    }
+
+    // Espera carril libre en el segmento, con el cerrojo tomado
+    void esperarCarril(int segmento) {
+      while (!ocupacion.hayLibre(segmento - primero + 1)) {
+        hayCarril[segmento - primero].awaitUninterruptibly();
+      }
+    }
+
+    // Coloca al coche en el carril libre más bajo, con el cerrojo tomado
+    Pos ocupar(int segmento, Coche coche, int tks) {
+      int local = segmento - primero + 1;
+      int carril = ocupacion.primerLibre(local);
+      ocupacion.ocupar(local, carril);
+      coche.particion = this;
+      coche.segmento = segmento;
+      coche.carril = carril;
+      coche.ticks = tks;
+      if (tks > 0) {
+        if (numActivos == activos.length)
+          activos = Arrays.copyOf(activos, 2 * numActivos);
+        activos[numActivos++] = coche;
+      }
+      return Pos.of(segmento, carril);
+    }
+
+    // Libera el carril, con el cerrojo tomado
+    void liberar(int segmento, int carril) {
+      ocupacion.liberar(segmento - primero + 1, carril);
+      hayCarril[segmento - primero].signal();
+    }
+
+    Condition finCarril(Coche coche) {
+      return finCarril[(coche.segmento - primero) * CARRILES + coche.carril - 1];
+    }
+
+    void tick(long n) {
+      cerrojo.lock();
+      try {
+        for (int i = 0; i < numActivos; i++) {
+          Coche coche = activos[i];
+          // Ya ha recibido este tick en la partición anterior
+          if (coche.descontado == n)
+            continue;
+          coche.descontado = n;
+          if (--coche.ticks == 0) {
+            finCarril(coche).signal();
+            // Lo sustituye el último activo, que se mira a continuación
+            activos[i--] = activos[--numActivos];
+            activos[numActivos] = null;
+          }
+        }
+      } finally {
+        cerrojo.unlock();
+      }
+    }
+  }
+
+  // Tick de las particiones desde..hasta-1, partiendo el rango en dos
+  private class TickParticiones extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int desde;
+    private final int hasta;
+    private final long n;
+
+    TickParticiones(int desde, int hasta, long n) {
+      this.desde = desde;
+      this.hasta = hasta;
+      this.n = n;
+    }
+
+    protected void compute() {
+      if (hasta - desde == 1) {
+        particiones[desde].tick(n);
+      } else {
+        int medio = (desde + hasta) >>> 1;
+        invokeAll(new TickParticiones(desde, medio, n), new TickParticiones(medio, hasta, n));
+      }
+    }
+  }
+
+  /**
+   * Una partición por procesador, con al menos SEGMENTOS_POR_PARTICION
+   * segmentos en cada una.
+   */
+  public CarreteraParticionada(int segmentos, int carriles) {
+    this(segmentos, carriles, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                                                   segmentos / SEGMENTOS_POR_PARTICION)));
+  }
+
+  /**
+   * Reparte los segmentos en el número de particiones dado (como mucho
+   * una por segmento).
+   */
+  public CarreteraParticionada(int segmentos, int carriles, int particiones) {
+    if (particiones < 1) {
+      throw new IllegalArgumentException("hace falta al menos una particion");
+    }
+    this.SEGMENTOS = segmentos;
+    this.CARRILES = carriles;
+    Pos.reservar(segmentos, carriles);
+    this.coches = new ConcurrentHashMap<>();
+    this.tamano = (segmentos + Math.min(particiones, segmentos) - 1) / Math.min(particiones, segmentos);
+    this.particiones = new Particion[(segmentos + tamano - 1) / tamano];
+    for (int p = 0; p < this.particiones.length; p++) {
+      this.particiones[p] = new Particion(p * tamano + 1, Math.min(segmentos, (p + 1) * tamano));
+    }
+  }
+
+  /**
+   * Número de particiones.
+   */
+  public int particiones() {
+    return particiones.length;
+  }
+
+  public Pos entrar(String id, int tks) {
+    Coche coche = new Coche();
+    if (coches.putIfAbsent(id, coche) != null) {
+      throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+    }
+    Particion primera = particiones[0];
+    primera.cerrojo.lock();
+    try {
+      primera.esperarCarril(1);
+      return primera.ocupar(1, coche, tks);
+    } finally {
+      primera.cerrojo.unlock();
+    }
+  }
+
+  public Pos avanzar(String id, int tks) {
+    Coche coche = buscar(id);
+    int segmento = coche.segmento;
+    if (segmento >= SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede avanzar más"));
+    }
+    Particion actual = coche.particion;
+    actual.cerrojo.lock();
+    try {
+      if (coche.ticks != 0) {
+        throw new RuntimeException(new Exception("El coche sigue circulando"));
+      }
+      if (segmento < actual.ultimo) {
+        // Dentro de la partición
+        actual.esperarCarril(segmento + 1);
+        actual.liberar(segmento, coche.carril);
+        return actual.ocupar(segmento + 1, coche, tks);
+      }
+    } finally {
+      actual.cerrojo.unlock();
+    }
+
+    // Cruce de frontera: primero el carril en la siguiente partición,
+    // después se deja el de esta
+    Particion siguiente = particiones[segmento / tamano];
+    int carrilAnterior = coche.carril;
+    Pos pos;
+    siguiente.cerrojo.lock();
+    try {
+      siguiente.esperarCarril(segmento + 1);
+      pos = siguiente.ocupar(segmento + 1, coche, tks);
+    } finally {
+      siguiente.cerrojo.unlock();
+    }
+    actual.cerrojo.lock();
+    try {
+      actual.liberar(segmento, carrilAnterior);
+    } finally {
+      actual.cerrojo.unlock();
+    }
+    return pos;
+  }
+
+  public void circulando(String id) {
+    Coche coche = buscar(id);
+    Particion particion = coche.particion;
+    particion.cerrojo.lock();
+    try {
+      while (coche.ticks > 0) {
+        particion.finCarril(coche).awaitUninterruptibly();
+      }
+    } finally {
+      particion.cerrojo.unlock();
+    }
+  }
+
+  public void salir(String id) {
+    Coche coche = buscar(id);
+    if (coche.segmento != SEGMENTOS) {
+      throw new RuntimeException(new Exception("El coche no puede salir"));
+    }
+    Particion ultima = coche.particion;
+    ultima.cerrojo.lock();
+    try {
+      if (coche.ticks != 0) {
+        throw new RuntimeException(new Exception("El coche sigue circulando"));
+      }
+      ultima.liberar(SEGMENTOS, coche.carril);
+    } finally {
+      ultima.cerrojo.unlock();
+    }
+    coches.remove(id);
+  }
+
+  public void tick() {
+    long n = ++ticks;
+    if (particiones.length == 1)
+      particiones[0].tick(n);
+    else
+      ForkJoinPool.commonPool().invoke(new TickParticiones(0, particiones.length, n));
+  }
+
+  private Coche buscar(String id) {
+    Coche coche = coches.get(id);
+    if (coche == null) {
+      throw new RuntimeException(new Exception("El coche no existe"));
+    }
+    return coche;
+  }
+}
@@ -14,14 +14,19 @@ import javax.swing.JRadioButton;
 import javax.swing.JSeparator;
 import javax.swing.JButton;
 import javax.swing.JTable;
-import javax.swing.JTextArea;
+import javax.swing.JList;
+import javax.swing.JComboBox;
+import javax.swing.DefaultComboBoxModel;
+import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.border.LineBorder;
@@ -47,15 +52,23 @@ public class CarreteraSim {
   int segmentos;
   int carriles;
 
+  // Milliseconds between ticks when not stepping ticks manually
+  static final long MS_POR_TICK = 5000;
+  long msPorTick = MS_POR_TICK;
+
   // Random number generation
   Random rnd;
 
   // GUI state
   private JFrame frmCarreterasim;
-  JTextArea callsTextArea;
-  JLabel[][] carretera;
-  int[][] tks;
-  String[][] cars;
+  // Last calls, in constant memory, shown by a JList that only renders
+  // the visible rows
+  static final int CALLS_SHOWN = 10000;
+  RegistroLlamadas calls = new RegistroLlamadas(CALLS_SHOWN);
+  JList<String> callsList;
+  JComboBox<String> carFilter;
+  JComboBox<String> operationFilter;
+  VistaCarretera roadView;
 
   // JLabel timeLab;
 
@@ -76,13 +89,18 @@ public class CarreteraSim {
   int generation = 0;
 
   /**
-   * Launch the application.
+   * Launch the application. The road has random dimensions unless
+   * segmentos and carriles are given as arguments; a third argument
+   * sets the milliseconds between ticks.
    */
   public static void main(String[] args) {
     EventQueue.invokeLater(new Runnable() {
       public void run() {
         try {
-          CarreteraSim window = new CarreteraSim();
+          long msPorTick = args.length >= 3 ? Long.parseLong(args[2]) : MS_POR_TICK;
+          CarreteraSim window = args.length >= 2
+              ? new CarreteraSim(Integer.parseInt(args[0]), Integer.parseInt(args[1]), msPorTick)
+              : new CarreteraSim();
           window.frmCarreterasim.setVisible(true);
         } catch (Exception e) {
           e.printStackTrace();
@@ -95,20 +113,40 @@ public class CarreteraSim {
    * Create the application.
    */
   public CarreteraSim() {
-    initialize();
+    rnd = new Random();
+    initialize(2 + rnd.nextInt(4), 2 + rnd.nextInt(2));
   }
 
   /**
-   * Setup the GUI.
+   * Create the application for a road of the given dimensions.
+   */
+  public CarreteraSim(int segmentos, int carriles) {
+    this(segmentos, carriles, MS_POR_TICK);
+  }
+
+  /**
+   * Create the application for a road of the given dimensions, with
+   * msPorTick milliseconds between ticks.
    */
-  private void initialize() {
+  public CarreteraSim(int segmentos, int carriles, long msPorTick) {
+    if (msPorTick <= 0) {
+      throw new IllegalArgumentException("msPorTick must be > 0: " + msPorTick);
+    }
     rnd = new Random();
-    segmentos = 2 + rnd.nextInt(4);
-    carriles = 2 + rnd.nextInt(2);
+    this.msPorTick = msPorTick;
+    initialize(segmentos, carriles);
+  }
+
+  /**
+   * Setup the GUI.
+   */
+  private void initialize(int segmentos, int carriles) {
+    this.segmentos = segmentos;
+    this.carriles = carriles;
 
     frmCarreterasim = new JFrame();
     frmCarreterasim.setTitle("CarreteraSim");
-    frmCarreterasim.setBounds(100, 100, Math.max(500, 200 + 100 * segmentos), Math.max(500, 300 + carriles * 100));
+    frmCarreterasim.setBounds(100, 100, 900, 700);
     frmCarreterasim.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
     // JLabel lblTime = new JLabel("Time:");
@@ -127,19 +165,13 @@ public class CarreteraSim {
       }
     });
     btnDoTimeTick.setEnabled(false);
-    carretera = new JLabel[segmentos][carriles];
-    tks = new int[segmentos][carriles];
-    cars = new String[segmentos][carriles];
-    for (int segmento = 0; segmento < segmentos; segmento++)
-      for (int carril = 0; carril < carriles; carril++) {
-        carretera[segmento][carril] = new JLabel("--------");
-        tks[segmento][carril] = 0;
-        cars[segmento][carril] = null;
-      }
+    roadView = new VistaCarretera(segmentos, carriles);
 
     JPanel panel_options = new JPanel();
     JPanel panel_carretera = new JPanel();
     panel_carretera.setBorder(new LineBorder(new Color(0, 0, 0)));
+    panel_carretera.setLayout(new BorderLayout());
+    panel_carretera.add(roadView, BorderLayout.CENTER);
 
     JPanel panel_actions = new JPanel();
     JPanel panel_calls = new JPanel();
@@ -149,10 +181,23 @@ public class CarreteraSim {
     txtCalls.setText("Calls:");
     txtCalls.setColumns(10);
 
-    callsTextArea = new JTextArea();
-    callsTextArea.setColumns(20);
-    callsTextArea.setRows(20);
-    JScrollPane callsTextAreaSP = new JScrollPane(callsTextArea);
+    callsList = new JList<>(calls);
+    callsList.setPrototypeCellValue("time 0000:  circulando(citroen) returned [started at time 0000]");
+    callsList.setVisibleRowCount(12);
+    JScrollPane callsListSP = new JScrollPane(callsList);
+
+    carFilter = new JComboBox<>(new String[] { ALL_CARS });
+    operationFilter = new JComboBox<>();
+    operationFilter.addItem(ALL_OPERATIONS);
+    for (int op = Traza.ENTRAR; op <= Traza.TICK; op++)
+      operationFilter.addItem(Traza.operacion(op));
+    ActionListener filter = new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        filterCalls();
+      }
+    };
+    carFilter.addActionListener(filter);
+    operationFilter.addActionListener(filter);
 
     JButton btnQuit = new JButton("Quit");
     btnQuit.addActionListener(new ActionListener() {
@@ -198,21 +243,21 @@ public class CarreteraSim {
         tickQueue = new LinkedBlockingQueue<Integer>();
         // time = 0;
         // timeLab.setText(Integer.valueOf(time).toString());
-        sim = new Sim(win, rnd, generation, tickQueue, segmentos, carriles);
+        sim = new Sim(win, rnd, generation, tickQueue, segmentos, carriles, msPorTick);
         stepTicks = stepTicksBox.isSelected();
         btnDoTimeTick.setEnabled(stepTicks);
         btnPauseSim.setEnabled(!stepTicks);
         btnPauseSim.setText("Pause simulation");
 
-        for (JLabel[] lblRow : carretera)
-          for (JLabel lbl : lblRow)
-            lbl.setText("--------");
-        for (int segmento = 0; segmento < segmentos; segmento++)
-          for (int carril = 0; carril < carriles; carril++) {
-            tks[segmento][carril] = 0;
-            cars[segmento][carril] = null;
-          }
-        callsTextArea.setText("");
+        roadView.vaciar();
+        roadView.nombres(sim.traza::nombre);
+        calls.vaciar(sim.traza);
+        String[] carNames = sim.cars.clone();
+        Arrays.sort(carNames);
+        carFilter.setModel(new DefaultComboBoxModel<>(new String[] { ALL_CARS }));
+        for (String car : carNames)
+          carFilter.addItem(car);
+        filterCalls();
 
         sim.execute();
       }
@@ -236,39 +281,6 @@ public class CarreteraSim {
             .addComponent(panel_calls)
             .addComponent(panel_actions));
 
-    // Panel 1: carretera
-
-    GroupLayout gl_panel_carretera = new GroupLayout(panel_carretera);
-    GroupLayout.ParallelGroup[] horizontalGroups = new GroupLayout.ParallelGroup[segmentos];
-    GroupLayout.ParallelGroup[] verticalGroups = new GroupLayout.ParallelGroup[carriles];
-
-    for (int segmento = 0; segmento < segmentos; segmento++) {
-      GroupLayout.ParallelGroup g = gl_panel_carretera.createParallelGroup(Alignment.LEADING);
-      horizontalGroups[segmento] = g;
-      for (int carril = 0; carril < carriles; carril++)
-        g.addComponent(carretera[segmento][carril], GroupLayout.DEFAULT_SIZE, 100, Short.MAX_VALUE);
-    }
-
-    for (int carril = carriles - 1; carril >= 0; carril--) {
-      GroupLayout.ParallelGroup g = gl_panel_carretera.createParallelGroup(Alignment.BASELINE);
-      verticalGroups[carril] = g;
-      for (int segmento = 0; segmento < segmentos; segmento++)
-        g.addComponent(carretera[segmento][carril], GroupLayout.DEFAULT_SIZE, 30, Short.MAX_VALUE);
-    }
-
-    gl_panel_carretera.setAutoCreateGaps(true);
-    gl_panel_carretera.setAutoCreateContainerGaps(true);
-    GroupLayout.SequentialGroup horizontalGroup = gl_panel_carretera.createSequentialGroup();
-    for (int segmento = 0; segmento < segmentos; segmento++)
-      horizontalGroup.addGroup(horizontalGroups[segmento]);
-    gl_panel_carretera.setHorizontalGroup(horizontalGroup);
-
-    GroupLayout.SequentialGroup verticalGroup = gl_panel_carretera.createSequentialGroup();
-    for (int carril = carriles - 1; carril >= 0; carril--)
-      verticalGroup.addGroup(verticalGroups[carril]);
-    gl_panel_carretera.setVerticalGroup(verticalGroup);
-    panel_carretera.setLayout(gl_panel_carretera);
-
     // Panel time_options: time and time tick option
 
     GroupLayout gl_panel_options = new GroupLayout(panel_options);
@@ -317,25 +329,60 @@ public class CarreteraSim {
 
     gl_panel_calls.setHorizontalGroup(
         gl_panel_calls.createParallelGroup(Alignment.LEADING)
-            .addComponent(txtCalls)
-            .addComponent(callsTextAreaSP));
+            .addGroup(gl_panel_calls.createSequentialGroup()
+                .addComponent(txtCalls)
+                .addComponent(carFilter)
+                .addComponent(operationFilter))
+            .addComponent(callsListSP));
     gl_panel_calls.setVerticalGroup(
         gl_panel_calls.createSequentialGroup()
-            .addComponent(txtCalls, GroupLayout.PREFERRED_SIZE, 20, GroupLayout.PREFERRED_SIZE)
-            .addComponent(callsTextAreaSP, GroupLayout.PREFERRED_SIZE, 200, GroupLayout.PREFERRED_SIZE));
+            .addGroup(gl_panel_calls.createParallelGroup(Alignment.BASELINE)
+                .addComponent(txtCalls, GroupLayout.PREFERRED_SIZE, 20, GroupLayout.PREFERRED_SIZE)
+                .addComponent(carFilter)
+                .addComponent(operationFilter))
+            .addComponent(callsListSP, GroupLayout.PREFERRED_SIZE, 200, GroupLayout.PREFERRED_SIZE));
     panel_calls.setLayout(gl_panel_calls);
 
     // Set layout on top content pane
 
     frmCarreterasim.getContentPane().setLayout(gl_top);
   }
+
+  static final String ALL_CARS = "All cars";
+  static final String ALL_OPERATIONS = "All operations";
+
+  // Show only the calls of the car and operation selected
+  void filterCalls() {
+    int car = RegistroLlamadas.TODOS;
+    int operation = operationFilter.getSelectedIndex() - 1;
+    Object carName = carFilter.getSelectedItem();
+    if (sim != null && carName != null && !ALL_CARS.equals(carName))
+      car = sim.traza.coche((String) carName);
+    calls.filtrar(car, operation < 0 ? RegistroLlamadas.TODOS : operation);
+  }
+
+  // Called after new calls are added: keeps the last one visible if the
+  // list was already showing the end
+  void callsAdded(boolean atEnd) {
+    calls.publicar();
+    int size = calls.getSize();
+    if (atEnd && size > 0)
+      callsList.ensureIndexIsVisible(size - 1);
+  }
+
+  // The list shows its last row
+  boolean callsAtEnd() {
+    int size = calls.getSize();
+    return size == 0 || callsList.getLastVisibleIndex() >= size - 1;
+  }
 }
 
 /*
  * Run the simulation. Since we can change the GUI only in a single
- * thread the simulation is run as a "SwingWorker",
- * and we send simulation events
- * back to the GUI theread.
+ * thread the simulation is run as a "SwingWorker".
+ * Simulation events are recorded as binary records in a Traza and
+ * the GUI thread is only told that there are new events; it reads
+ * and renders them as text when it processes the notification.
  */
 
 class Sim extends SwingWorker<Void, Object> {
@@ -362,10 +409,27 @@ class Sim extends SwingWorker<Void, Object> {
   int segmentos;
   int carriles;
 
-  int time = 0;
+  // Milliseconds between ticks when not stepping ticks manually
+  long msPorTick;
+
+  // Events of the simulation
+  static final int TRAZA_EVENTOS = 1 << 16;
+  final Traza traza = new Traza(TRAZA_EVENTOS);
 
-  Sim(CarreteraSim cs, Random rnd, int generation, BlockingQueue<Integer> tickQueue, int segmentos, int carriles) {
+  // Sent to the GUI thread when there are new events in the traza
+  static final Object NEW_EVENTS = new Object();
+
+  // Next event the GUI has to show (only used by the GUI thread)
+  private long nextEvent = 0;
+  private final int[] event = new int[Traza.REGISTRO];
+
+  // Carretera under simulation, records every call in the traza
+  CarreteraTrazada cr;
+
+  Sim(CarreteraSim cs, Random rnd, int generation, BlockingQueue<Integer> tickQueue, int segmentos, int carriles,
+      long msPorTick) {
     this.cs = cs;
+    this.msPorTick = msPorTick;
     this.generation = generation;
     this.tickQueue = tickQueue;
     this.segmentos = segmentos;
@@ -384,101 +448,80 @@ class Sim extends SwingWorker<Void, Object> {
     velocidades.put("porsche", 3);
   }
 
-  // Remove a car from the GUI
-  static void removeCar(CarreteraSim cs, String car) {
-    for (int i = 0; i < cs.carretera.length; i++)
-      for (int j = 0; j < cs.carretera[0].length; j++)
-        if (cs.carretera[i][j].getText().startsWith(car)) {
-          cs.carretera[i][j].setText("--------");
-          cs.cars[i][j] = null;
-          cs.tks[i][j] = 0;
-        }
-  }
-
   // Handles the GUI updates resulting from simulation events
   @Override
   protected void process(List<Object> messages) {
-    for (Object preMsg : messages) {
+    if (generation != cs.generation)
+      return;
 
+    boolean atEnd = cs.callsAtEnd();
+    for (Object msg : messages) {
       // A message sent?
-      if (preMsg instanceof String) {
-        String str = (String) preMsg;
-        cs.callsTextArea.append(str + "\n");
+      if (msg instanceof String) {
+        String str = (String) msg;
+        for (String line : str.split("\n"))
+          cs.calls.mensaje(line);
         System.out.println(str);
       }
+    }
 
-      // Else we must have been sent a call and a generation
-      else if (preMsg instanceof CallAndGeneration) {
-        CallAndGeneration msg = (CallAndGeneration) preMsg;
-        if (msg.generation == cs.generation) {
-          SimCall call = msg.call;
-
-          // Call raised an exception?
-          if (call.raisedException) {
-            String str = "\n*** Error: exception thrown:\n" + call.exception;
-            System.out.println(str);
-            call.exception.printStackTrace();
-            cs.callsTextArea.append(str + "\n");
-            for (StackTraceElement e : call.exception.getStackTrace()) {
-              cs.callsTextArea.append(e + "\n");
-            }
-          }
+    // Show the events recorded since the last notification
+    long end = traza.fin();
+    while (nextEvent < end) {
+      if (!traza.leer(nextEvent, event)) {
+        if (!traza.perdido(nextEvent))
+          break; // still being written, shown on the next notification
+        long lost = 0;
+        while (traza.perdido(nextEvent)) {
+          nextEvent++;
+          lost++;
+        }
+        cs.calls.mensaje("*** " + lost + " events lost");
+        continue;
+      }
+      showEvent(nextEvent, event);
+      nextEvent++;
+    }
 
-          // Call failed?
-          else if (call.failed) {
-            String str = "\n*** Error: " + call.failMessage;
-            cs.callsTextArea.append(str + "\n");
-            System.out.println(str);
-          }
+    // The road cells are repainted by the frame timer
+    cs.callsAdded(atEnd);
+  }
 
-          // Call returned normally
-          else {
-            String str = "";
-            if (call.returnTime != -1 && (call.returnTime != call.time)) {
-              str = "time " + call.returnTime + ":  " + call.toString() + " [started at time " + call.time + "]";
-            } else {
-              str = "time " + call.time + ":  " + call.toString();
-            }
-            cs.callsTextArea.append(str + "\n");
-            System.out.println(str);
-
-            if (call.name.equals("entrar") && call.returned) {
-              Pos pos = call.result;
-              int segmento = pos.getSegmento() - 1;
-              int carril = pos.getCarril() - 1;
-              cs.cars[segmento][carril] = call.car;
-              cs.tks[segmento][carril] = call.velocidad;
-              JLabel lbl = cs.carretera[segmento][carril];
-              lbl.setText(call.car + "@" + Integer.valueOf(call.velocidad));
-            } else if (call.name.equals("avanzar") && call.returned) {
-              Pos pos = call.result;
-              int segmento = pos.getSegmento() - 1;
-              int carril = pos.getCarril() - 1;
-              cs.cars[segmento][carril] = call.car;
-              cs.tks[segmento][carril] = call.velocidad;
-              removeCar(cs, call.car);
-              JLabel lbl = cs.carretera[segmento][carril];
-              lbl.setText(call.car + "@" + Integer.valueOf(call.velocidad));
-            } else if (call.name.equals("salir") && call.returned) {
-              removeCar(cs, call.car);
-            } else if (call.name.equals("tick") && call.returned) {
-              for (int segmento = 0; segmento < segmentos; segmento++)
-                for (int carril = 0; carril < carriles; carril++) {
-                  if (cs.tks[segmento][carril] > 0) {
-                    --cs.tks[segmento][carril];
-                    JLabel lbl = cs.carretera[segmento][carril];
-                    lbl.setText(cs.cars[segmento][carril] + "@" + Integer.valueOf(cs.tks[segmento][carril]));
-                  }
-                }
-            }
-          }
-        }
+  private void showEvent(long seq, int[] e) {
+    Throwable exc = e[Traza.TIPO] == Traza.ERROR ? traza.excepcion(seq) : null;
+    cs.calls.anadir(e, exc);
+
+    switch (e[Traza.TIPO]) {
+      case Traza.ERROR:
+        // The list only shows the exception, the console gets the trace
+        System.out.println(traza.texto(e));
+        if (exc != null)
+          exc.printStackTrace(System.out);
+        return;
+      case Traza.FALLO:
+        System.out.println(traza.texto(e));
+        return;
+      case Traza.LLAMADA:
+        return;
+    }
 
-      } else {
-        String str = "\n*** Internal error: unknown message " + preMsg + " received";
-        cs.callsTextArea.append(str + "\n");
-        System.out.println(str);
-      }
+    // Call returned normally
+    int car = e[Traza.COCHE];
+    int segmento = e[Traza.SEGMENTO];
+    int carril = e[Traza.CARRIL];
+    switch (e[Traza.OPERACION]) {
+      case Traza.ENTRAR:
+      case Traza.AVANZAR:
+        if (segmento < 1 || segmento > segmentos || carril < 1 || carril > carriles)
+          return; // reported by a FALLO event
+        cs.roadView.poner(car, segmento, carril, e[Traza.VELOCIDAD]);
+        break;
+      case Traza.SALIR:
+        cs.roadView.quitar(car);
+        break;
+      case Traza.TICK:
+        cs.roadView.tick();
+        break;
     }
   }
 
@@ -512,11 +555,7 @@ class Sim extends SwingWorker<Void, Object> {
       return null;
     }
 
-    // This strange looking code is to pass a Java check that variables used in
-    // lambda expressions must be final or effectively final. Since crPre is set
-    // in the try it does not pass the test (even if we assign crPre also in the
-    // catch part)
-    Carretera cr = crPre;
+    cr = new CarreteraTrazada(crPre, traza);
 
     // Number of cars to simulate
     int numCars = rnd.nextInt(cars.length - 1) + 1;
@@ -538,20 +577,19 @@ class Sim extends SwingWorker<Void, Object> {
       // circulando]*, salir)
       Thread carTh = new Thread(car) {
         public void run() {
-          Pos result = null;
           int currX = 1;
 
           // Do the car process
           if (!terminated.get()) {
             terminated.compareAndSet(false, !doResultCall(() -> {
               return cr.entrar(car, velocidad);
-            }, SimCall.entrar(time, car, velocidad), currX, carriles));
+            }, Traza.ENTRAR, car, velocidad, currX));
           }
 
           if (!terminated.get()) {
             terminated.compareAndSet(false, !doCall(() -> {
               cr.circulando(car);
-            }, SimCall.circulando(time, car)));
+            }));
           }
 
           while (!terminated.get() && currX < segmentos) {
@@ -559,20 +597,20 @@ class Sim extends SwingWorker<Void, Object> {
             if (!terminated.get()) {
               terminated.compareAndSet(false, !doResultCall(() -> {
                 return cr.avanzar(car, velocidad);
-              }, SimCall.avanzar(time, car, velocidad), ++currX, carriles));
+              }, Traza.AVANZAR, car, velocidad, ++currX));
             }
 
             if (!terminated.get()) {
               terminated.compareAndSet(false, !doCall(() -> {
                 cr.circulando(car);
-              }, SimCall.circulando(time, car)));
+              }));
             }
           }
 
           if (!terminated.get()) {
             terminated.compareAndSet(false, !doCall(() -> {
               cr.salir(car);
-            }, SimCall.salir(time, car)));
+            }));
           }
 
           carsToExit.decrementAndGet();
@@ -585,6 +623,9 @@ class Sim extends SwingWorker<Void, Object> {
     // Listens to orders from the GUI to pause or quit the current simulation.
     Thread timeThread = new Thread("tick") {
       public void run() {
+        // Ticks are scheduled against absolute deadlines so the time
+        // spent in cr.tick() does not accumulate
+        long deadline = System.nanoTime();
         do {
           Integer cmd = null;
           if (stepTicks) {
@@ -597,7 +638,10 @@ class Sim extends SwingWorker<Void, Object> {
             }
           } else {
             try {
-              Thread.sleep(5000);
+              deadline += TimeUnit.MILLISECONDS.toNanos(msPorTick);
+              long wait = deadline - System.nanoTime();
+              if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
 
               cmd = tickQueue.poll();
               boolean stopped = (cmd != null && cmd == -1);
@@ -607,6 +651,8 @@ class Sim extends SwingWorker<Void, Object> {
                 cmd = tickQueue.take();
                 terminated.compareAndSet(false, cmd != null && cmd == -10);
                 stopped = !(cmd != null && cmd == -1);
+                // Restart the schedule after a pause
+                deadline = System.nanoTime();
               }
             } catch (InterruptedException e) {
               // TODO Auto-generated catch block
@@ -617,8 +663,7 @@ class Sim extends SwingWorker<Void, Object> {
           if (!terminated.get()) {
             terminated.compareAndSet(false, !doCall(() -> {
               cr.tick();
-              ++time;
-            }, SimCall.tick(time)));
+            }));
           }
         } while (!terminated.get() && carsToExit.get() > 0);
       }
@@ -627,186 +672,54 @@ class Sim extends SwingWorker<Void, Object> {
     return null;
   }
 
-  // Send a message from the simulation to the GUI
-  SimCall sendCallToGUI(SimCall call) {
-    publish(new CallAndGeneration(call, generation));
-    return call;
+  // Tell the GUI thread that there are new events in the traza
+  void notifyGUI() {
+    publish(NEW_EVENTS);
   }
 
-  boolean doCall(Runnable callCode, SimCall oldCall) {
-    sendCallToGUI(oldCall);
-    SimCall call = new SimCall(oldCall);
-
+  // The call and its result (or exception) are recorded by CarreteraTrazada
+  boolean doCall(Runnable callCode) {
+    notifyGUI();
     boolean callResult = true;
 
     try {
       callCode.run();
     } catch (Throwable exc) {
-      call.raisedException = true;
-      call.exception = exc;
       callResult = false;
     }
-    ;
 
-    if (callResult) {
-      call.returnTime = time;
-      call.returned();
-    }
-
-    sendCallToGUI(call);
+    notifyGUI();
     return callResult;
   }
 
-  boolean doResultCall(Supplier<Pos> callCode, SimCall oldCall, int expectedSegmento, int carriles) {
-    sendCallToGUI(oldCall);
-    SimCall call = new SimCall(oldCall);
+  boolean doResultCall(Supplier<Pos> callCode, int operacion, String car, int velocidad, int expectedSegmento) {
+    notifyGUI();
     boolean callResult = true;
     Pos pos = null;
 
     try {
       pos = callCode.get();
     } catch (Throwable exc) {
-      call.raisedException = true;
-      call.exception = exc;
       callResult = false;
     }
-    ;
 
     if (callResult) {
-      call.returned(pos);
-      call.returnTime = time;
-      callResult = checkCall(call, expectedSegmento, carriles);
+      callResult = checkCall(pos, operacion, car, velocidad, expectedSegmento);
     }
 
-    sendCallToGUI(call);
+    notifyGUI();
     return callResult;
   }
 
-  private boolean checkCall(SimCall call, int expectedSegmento, int carriles) {
-    Pos result = call.result;
-
-    if (result == null) {
-      call.failed = true;
-      call.failMessage = "The call to " + call.getCallString() + " returned a NULL value";
+  // Records a FALLO event if the position returned is wrong
+  private boolean checkCall(Pos result, int operacion, String car, int velocidad, int expectedSegmento) {
+    int segmento = result == null ? 0 : result.getSegmento();
+    int carril = result == null ? 0 : result.getCarril();
+    if (result == null || segmento != expectedSegmento || carril < 1 || carril > carriles) {
+      traza.registrar(Traza.FALLO, operacion, traza.coche(car), cr.tiempo(), velocidad,
+                      segmento, carril, expectedSegmento);
       return false;
-    } else if (result.getSegmento() != expectedSegmento) {
-      call.failed = true;
-      call.failMessage = "The call to " + call.getCallString() + " returned a segmento " +
-          result.getSegmento() + " != expected value " + expectedSegmento;
-      return false;
-    } else if (result.getCarril() < 1 || result.getCarril() > carriles) {
-      call.failed = true;
-      call.failMessage = "The call to " + call.getCallString() + " returned a carril " +
-          result.getCarril() + " < 1 or > the number of carriles = " + carriles;
-      return false;
-    } else
-      return true;
-  }
-}
-
-// A simulation event sent to the GUI which includes the generation --
-// to discard "old" events.
-class CallAndGeneration {
-  SimCall call;
-  Integer generation;
-
-  CallAndGeneration(SimCall call, int generation) {
-    this.call = call;
-    this.generation = generation;
-  }
-}
-
-// A simulation event sent to the GUI
-class SimCall {
-  int time;
-  int returnTime = -1;
-  String name;
-  String car = null;
-  Integer velocidad = null;
-  boolean returned;
-  Pos result = null;
-  boolean failed = false;
-  String failMessage = null;
-  boolean raisedException = false;
-  Throwable exception;
-
-  SimCall(int time, String name) {
-    this.time = time;
-    this.name = name;
-    this.returned = false;
-  }
-
-  SimCall(SimCall call) {
-    this.time = call.time;
-    this.returnTime = call.returnTime;
-    this.name = call.name;
-    this.car = call.car;
-    this.velocidad = call.velocidad;
-    this.returned = call.returned;
-    this.result = call.result;
-    this.failed = call.failed;
-    this.failMessage = call.failMessage;
-    this.raisedException = call.raisedException;
-    this.exception = call.exception;
-  }
-
-  static SimCall entrar(int time, String car, int velocidad) {
-    SimCall call = new SimCall(time, "entrar");
-    call.car = car;
-    call.velocidad = velocidad;
-    return call;
-  }
-
-  static SimCall avanzar(int time, String car, int velocidad) {
-    SimCall call = new SimCall(time, "avanzar");
-    call.car = car;
-    call.velocidad = velocidad;
-    return call;
-  }
-
-  static SimCall salir(int time, String car) {
-    SimCall call = new SimCall(time, "salir");
-    call.car = car;
-    return call;
-  }
-
-  static SimCall circulando(int time, String car) {
-    SimCall call = new SimCall(time, "circulando");
-    call.car = car;
-    return call;
-  }
-
-  static SimCall tick(int time) {
-    SimCall call = new SimCall(time, "tick");
-    return call;
-  }
-
-  public void returned() {
-    this.returned = true;
-  }
-
-  public void returned(Pos result) {
-    this.returned = true;
-    this.result = result;
-  }
-
-  public String getCallString() {
-    String str = name + "(";
-    if (car != null)
-      str += car;
-    if (velocidad != null)
-      str += "," + velocidad;
-    str += ")";
-    return str;
-  }
-
-  public String toString() {
-    String str = getCallString();
-    if (returned) {
-      str += " returned";
-      if (result != null)
-        str += " " + result;
     }
-    return str;
+    return true;
   }
 }
@@ -0,0 +1,90 @@
+package cc.carretera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Envoltorio de una Carretera que apunta en una Traza cada llamada y
+ * su retorno (o la excepción que lanza). El tiempo de los eventos son
+ * los ticks que han pasado por el envoltorio.
+ */
+public class CarreteraTrazada implements Carretera {
+  private final Carretera cr;
+  private final Traza traza;
+  private final AtomicInteger tiempo = new AtomicInteger(0);
+
+  public CarreteraTrazada(Carretera cr, Traza traza) {
+    this.cr = cr;
+    this.traza = traza;
+  }
+
+  /**
+   * Ticks dados.
+   */
+  public int tiempo() {
+    return tiempo.get();
+  }
+
+  public Pos entrar(String id, int tks) {
+    return posicion(Traza.ENTRAR, id, tks);
+  }
+
+  public Pos avanzar(String id, int tks) {
+    return posicion(Traza.AVANZAR, id, tks);
+  }
+
+  public void circulando(String id) {
+    int coche = traza.coche(id);
+    int inicio = tiempo.get();
+    traza.registrar(Traza.LLAMADA, Traza.CIRCULANDO, coche, inicio, 0, 0, 0, 0);
+    try {
+      cr.circulando(id);
+    } catch (RuntimeException | Error exc) {
+      traza.registrarError(Traza.CIRCULANDO, coche, tiempo.get(), 0, exc);
+      throw exc;
+    }
+    traza.registrar(Traza.RETORNO, Traza.CIRCULANDO, coche, tiempo.get(), 0, 0, 0, inicio);
+  }
+
+  public void salir(String id) {
+    int coche = traza.coche(id);
+    int inicio = tiempo.get();
+    traza.registrar(Traza.LLAMADA, Traza.SALIR, coche, inicio, 0, 0, 0, 0);
+    try {
+      cr.salir(id);
+    } catch (RuntimeException | Error exc) {
+      traza.registrarError(Traza.SALIR, coche, tiempo.get(), 0, exc);
+      throw exc;
+    }
+    traza.registrar(Traza.RETORNO, Traza.SALIR, coche, tiempo.get(), 0, 0, 0, inicio);
+  }
+
+  public void tick() {
+    int t = tiempo.get();
+    traza.registrar(Traza.LLAMADA, Traza.TICK, -1, t, 0, 0, 0, 0);
+    try {
+      cr.tick();
+    } catch (RuntimeException | Error exc) {
+      traza.registrarError(Traza.TICK, -1, t, 0, exc);
+      throw exc;
+    }
+    traza.registrar(Traza.RETORNO, Traza.TICK, -1, tiempo.incrementAndGet(), 0, 0, 0, t);
+  }
+
+  private Pos posicion(int operacion, String id, int tks) {
+    int coche = traza.coche(id);
+    int inicio = tiempo.get();
+    traza.registrar(Traza.LLAMADA, operacion, coche, inicio, tks, 0, 0, 0);
+    Pos pos;
+    try {
+      pos = operacion == Traza.ENTRAR ? cr.entrar(id, tks) : cr.avanzar(id, tks);
+    } catch (RuntimeException | Error exc) {
+      traza.registrarError(operacion, coche, tiempo.get(), tks, exc);
+      throw exc;
+    }
+    if (pos != null)
+      traza.registrar(Traza.RETORNO, operacion, coche, tiempo.get(), tks, pos.getSegmento(), pos.getCarril(), inicio);
+    else
+      traza.registrar(Traza.RETORNO, operacion, coche, tiempo.get(), tks, 0, 0, inicio);
+    return pos;
+  }
+}
@@ -0,0 +1,60 @@
+package cc.carretera;
+
+/**
+ * Crea implementaciones de Carretera a partir de su nombre. Permite
+ * elegir la implementación desde la línea de comandos sin tocar el
+ * código del simulador.
+ */
+public class Carreteras {
+
+  /**
+   * Nombres de las implementaciones disponibles.
+   */
+  public static final String[] NOMBRES = { "monitor", "csp", "csp-segmentos", "cerrojos", "cas", "buzon", "particionada" };
+
+  private Carreteras() {
+  }
+
+  /**
+   * Crea la implementación de nombre dado.
+   *
+   * @param nombre nombre de la implementación, ver NOMBRES
+   * @param segmentos número de segmentos de la carretera
+   * @param carriles número de carriles de cada segmento
+   *
+   * @return la carretera creada
+   */
+  public static Carretera crear(String nombre, int segmentos, int carriles) {
+    switch (nombre) {
+      case "monitor":
+        return new CarreteraMonitor(segmentos, carriles);
+      case "csp":
+        return new CarreteraCSP(segmentos, carriles);
+      case "csp-segmentos":
+        return new CarreteraCSPSegmentos(segmentos, carriles);
+      case "cerrojos":
+        return new CarreteraCerrojos(segmentos, carriles);
+      case "cas":
+        return new CarreteraCAS(segmentos, carriles);
+      case "buzon":
+        return new CarreteraBuzon(segmentos, carriles);
+      case "particionada":
+        return new CarreteraParticionada(segmentos, carriles);
+      default:
+        throw new IllegalArgumentException("implementacion desconocida: " + nombre
+                                           + " (disponibles: " + String.join(", ", NOMBRES) + ")");
+    }
+  }
+
+  /**
+   * Indica si la implementación bloquea a los coches dentro de bloques
+   * synchronized (Object.wait). Hasta Java 24 un hilo virtual bloqueado
+   * así fija su hilo portador, de modo que con muchos coches virtuales
+   * la simulación se queda sin portadores. Es el caso de los canales de
+   * JCSP. cclib.Monitor, ReentrantLock y LockSupport no fijan el
+   * portador.
+   */
+  public static boolean fijaHiloPortador(String nombre) {
+    return nombre.startsWith("csp");
+  }
+}
@@ -16,7 +16,31 @@ public class Coche extends Thread {
     this.tks = tks;
   }
 
+  /**
+   * Crea, sin arrancarlo, un hilo del modo indicado que ejecuta el
+   * protocolo de un coche. Con ModoHilos.VIRTUAL no se crea ningún
+   * objeto Coche, solo el hilo virtual.
+   */
+  public static Thread crear(ModoHilos modo,
+                             Carretera cr,
+                             String id,
+                             int segmentos,
+                             int tks) {
+    if (modo == ModoHilos.PLATAFORMA) {
+      return new Coche(cr, id, segmentos, tks);
+    }
+    return modo.crear(id, () -> recorrer(cr, id, segmentos, tks));
+  }
+
   public void run() {
+    recorrer(cr, id, segmentos, tks);
+  }
+
+  /**
+   * Protocolo de un coche: entrar, circulando, [avanzar, circulando]*,
+   * salir.
+   */
+  static void recorrer(Carretera cr, String id, int segmentos, int tks) {
     cr.entrar(id, tks);
     cr.circulando(id);
     for (int i = 0; i < segmentos; i++) {
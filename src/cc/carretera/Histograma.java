@@ -0,0 +1,115 @@
+package cc.carretera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias sin cerrojos y de memoria fija. Los valores
+ * (nanosegundos) se agrupan en cubetas log-lineales: cada potencia de
+ * dos se parte en 16 cubetas, así que el error relativo de un
+ * percentil es menor del 7% en todo el rango. Registrar un valor es
+ * un incremento atómico en un AtomicLongArray, de modo que puede
+ * quedarse activo en ejecuciones reales.
+ */
+public class Histograma {
+  // Bits de cubeta dentro de cada potencia de dos
+  private static final int BITS = 4;
+  private static final int SUBCUBETAS = 1 << BITS;
+  private static final int CUBETAS = (64 - BITS) * SUBCUBETAS;
+
+  private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+  private final AtomicLong maximo = new AtomicLong(0);
+
+  /**
+   * Registra un valor; los negativos cuentan como 0.
+   */
+  public void registrar(long valor) {
+    if (valor < 0)
+      valor = 0;
+    cubetas.incrementAndGet(cubeta(valor));
+    // Solo se escribe el máximo cuando cambia
+    long max = maximo.get();
+    while (valor > max && !maximo.compareAndSet(max, valor)) {
+      max = maximo.get();
+    }
+  }
+
+  private static int cubeta(long valor) {
+    if (valor < SUBCUBETAS)
+      return (int) valor;
+    int desplazamiento = 63 - Long.numberOfLeadingZeros(valor) - BITS;
+    return (desplazamiento + 1) * SUBCUBETAS + (int) ((valor >>> desplazamiento) & (SUBCUBETAS - 1));
+  }
+
+  // Valor representativo (punto medio) de una cubeta
+  private static long valor(int cubeta) {
+    if (cubeta < SUBCUBETAS)
+      return cubeta;
+    int desplazamiento = cubeta / SUBCUBETAS - 1;
+    long inferior = (long) (SUBCUBETAS + cubeta % SUBCUBETAS) << desplazamiento;
+    return inferior + ((1L << desplazamiento) >>> 1);
+  }
+
+  /**
+   * Copia del estado actual. Las cubetas se leen una a una, así que con
+   * registros concurrentes es una aproximación, pero nunca bloquea a
+   * quien registra.
+   */
+  public Instantanea instantanea() {
+    long[] copia = new long[CUBETAS];
+    long total = 0;
+    for (int i = 0; i < CUBETAS; i++) {
+      copia[i] = cubetas.get(i);
+      total += copia[i];
+    }
+    return new Instantanea(copia, total, maximo.get());
+  }
+
+  /**
+   * Vacía el histograma.
+   */
+  public void reiniciar() {
+    for (int i = 0; i < CUBETAS; i++) {
+      cubetas.set(i, 0);
+    }
+    maximo.set(0);
+  }
+
+  /**
+   * Estado de un histograma en un instante.
+   */
+  public static class Instantanea {
+    private final long[] cubetas;
+    public final long total;
+    public final long maximo;
+
+    Instantanea(long[] cubetas, long total, long maximo) {
+      this.cubetas = cubetas;
+      this.total = total;
+      this.maximo = maximo;
+    }
+
+    /**
+     * Valor por debajo del cual queda la fracción p (0..1) de los
+     * registros, 0 si no hay ninguno.
+     */
+    public long percentil(double p) {
+      if (total == 0)
+        return 0;
+      long objetivo = Math.max(1, (long) Math.ceil(p * total));
+      long acumulado = 0;
+      for (int i = 0; i < cubetas.length; i++) {
+        acumulado += cubetas[i];
+        if (acumulado >= objetivo)
+          return Math.min(valor(i), maximo);
+      }
+      return maximo;
+    }
+
+    public String toString() {
+      return String.format("n=%d p50=%.1f us p99=%.1f us p999=%.1f us max=%.1f us",
+                           total, percentil(0.5) / 1e3, percentil(0.99) / 1e3,
+                           percentil(0.999) / 1e3, maximo / 1e3);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package cc.carretera;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Asigna a cada coche registrado un manejador entero. Los manejadores
+ * de los coches que salen se reutilizan, así que se mantienen por
+ * debajo del número máximo de coches que ha habido a la vez en la
+ * carretera y sirven de índice en arrays pequeños.
+ */
+class Manejadores {
+  // Manejador de cada identificador registrado
+  private final Map<String, Integer> porId = new ConcurrentHashMap<>();
+  // Identificador de cada manejador en uso
+  private String[] ids = new String[16];
+  // Manejadores libres para reutilizar
+  private int[] libres = new int[16];
+  private int numLibres = 0;
+  // Siguiente manejador nunca usado
+  private int siguiente = 0;
+
+  /**
+   * Asigna un manejador al coche.
+   */
+  int registrar(String id) {
+    int coche = asignar(id);
+    if (porId.putIfAbsent(id, coche) != null) {
+      devolver(coche);
+      throw new RuntimeException(new Exception("El coche ya se encuentra en la carretera"));
+    }
+    return coche;
+  }
+
+  /**
+   * Manejador del coche o -1 si no está registrado.
+   */
+  int buscar(String id) {
+    Integer coche = porId.get(id);
+    return coche == null ? -1 : coche;
+  }
+
+  /**
+   * Libera el manejador de un coche que ha salido.
+   */
+  synchronized void liberar(int coche) {
+    String id = ids[coche];
+    if (id != null) {
+      porId.remove(id);
+      devolver(coche);
+    }
+  }
+
+  private synchronized int asignar(String id) {
+    int coche;
+    if (numLibres > 0) {
+      coche = libres[--numLibres];
+    } else {
+      coche = siguiente++;
+      if (coche == ids.length)
+        ids = Arrays.copyOf(ids, 2 * coche);
+    }
+    ids[coche] = id;
+    return coche;
+  }
+
+  private synchronized void devolver(int coche) {
+    ids[coche] = null;
+    if (numLibres == libres.length)
+      libres = Arrays.copyOf(libres, 2 * numLibres);
+    libres[numLibres++] = coche;
+  }
+}
@@ -0,0 +1,163 @@
+package cc.carretera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Métricas de congestión de cada segmento de una carretera, en memoria
+ * constante (unos contadores por segmento):
+ *
+ * - ocupación de carriles a lo largo del tiempo, como la integral de
+ *   los carriles ocupados por tick, actualizada solo cuando cambia;
+ * - coches esperando para entrar en el segmento, ahora y como máximo;
+ * - ticks que pasa un coche desde que puede pasar al segmento (su
+ *   plazo en el anterior ha vencido, o pide entrar) hasta que se le
+ *   concede.
+ *
+ * Las actualiza la implementación con su exclusión mutua ya tomada, así
+ * que hay un solo escritor a la vez; los contadores son atómicos para
+ * que instantanea() pueda leerlos desde cualquier hilo.
+ */
+public class MetricasSegmentos {
+  private final int segmentos;
+  private final int carriles;
+
+  // Ticks transcurridos
+  private final AtomicLong ahora = new AtomicLong(0);
+
+  // Por segmento, el segmento s en la posición s-1
+  private final AtomicLongArray ocupados;
+  private final AtomicLongArray ocupacionAcumulada;
+  private final AtomicLongArray ultimoCambio;
+  private final AtomicLongArray esperando;
+  private final AtomicLongArray esperandoMaximo;
+  private final AtomicLongArray concesiones;
+  private final AtomicLongArray esperaTotal;
+  private final AtomicLongArray esperaMaxima;
+
+  public MetricasSegmentos(int segmentos, int carriles) {
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    ocupados = new AtomicLongArray(segmentos);
+    ocupacionAcumulada = new AtomicLongArray(segmentos);
+    ultimoCambio = new AtomicLongArray(segmentos);
+    esperando = new AtomicLongArray(segmentos);
+    esperandoMaximo = new AtomicLongArray(segmentos);
+    concesiones = new AtomicLongArray(segmentos);
+    esperaTotal = new AtomicLongArray(segmentos);
+    esperaMaxima = new AtomicLongArray(segmentos);
+  }
+
+  /**
+   * Nuevo tick.
+   */
+  void tick(long tick) {
+    ahora.set(tick);
+  }
+
+  /**
+   * Carriles ocupados del segmento tras un cambio.
+   */
+  void ocupacion(int segmento, int ocupadosAhora) {
+    int s = segmento - 1;
+    long t = ahora.get();
+    ocupacionAcumulada.addAndGet(s, ocupados.get(s) * (t - ultimoCambio.get(s)));
+    ultimoCambio.set(s, t);
+    ocupados.set(s, ocupadosAhora);
+  }
+
+  /**
+   * Coches esperando para entrar en el segmento.
+   */
+  void esperando(int segmento, int coches) {
+    int s = segmento - 1;
+    esperando.set(s, coches);
+    if (coches > esperandoMaximo.get(s))
+      esperandoMaximo.set(s, coches);
+  }
+
+  /**
+   * Se concede el segmento a un coche que podía pasar desde el tick desde.
+   */
+  void concedido(int segmento, long desde) {
+    int s = segmento - 1;
+    long espera = Math.max(ahora.get() - desde, 0);
+    concesiones.incrementAndGet(s);
+    esperaTotal.addAndGet(s, espera);
+    if (espera > esperaMaxima.get(s))
+      esperaMaxima.set(s, espera);
+  }
+
+  /**
+   * Copia del estado actual.
+   */
+  public Instantanea instantanea() {
+    long t = ahora.get();
+    Instantanea i = new Instantanea(segmentos, carriles, t);
+    for (int s = 0; s < segmentos; s++) {
+      long acumulada = ocupacionAcumulada.get(s) + ocupados.get(s) * (t - ultimoCambio.get(s));
+      i.ocupacionMedia[s] = t == 0 ? ocupados.get(s) : (double) acumulada / t;
+      i.esperando[s] = esperando.get(s);
+      i.esperandoMaximo[s] = esperandoMaximo.get(s);
+      long n = concesiones.get(s);
+      i.concesiones[s] = n;
+      i.esperaMedia[s] = n == 0 ? 0 : (double) esperaTotal.get(s) / n;
+      i.esperaMaxima[s] = esperaMaxima.get(s);
+    }
+    return i;
+  }
+
+  /**
+   * Métricas de todos los segmentos en un instante. El segmento s está
+   * en la posición s-1 de cada array.
+   */
+  public static class Instantanea {
+    public final int carriles;
+    public final long ticks;
+    // Carriles ocupados de media
+    public final double[] ocupacionMedia;
+    public final long[] esperando;
+    public final long[] esperandoMaximo;
+    public final long[] concesiones;
+    // Ticks de espera por concesión
+    public final double[] esperaMedia;
+    public final long[] esperaMaxima;
+
+    Instantanea(int segmentos, int carriles, long ticks) {
+      this.carriles = carriles;
+      this.ticks = ticks;
+      ocupacionMedia = new double[segmentos];
+      esperando = new long[segmentos];
+      esperandoMaximo = new long[segmentos];
+      concesiones = new long[segmentos];
+      esperaMedia = new double[segmentos];
+      esperaMaxima = new long[segmentos];
+    }
+
+    /**
+     * Segmento en el que los coches esperan más de media para entrar.
+     */
+    public int cuello() {
+      int peor = 0;
+      for (int s = 1; s < esperaMedia.length; s++) {
+        if (esperaMedia[s] > esperaMedia[peor])
+          peor = s;
+      }
+      return peor + 1;
+    }
+
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%d ticks%n", ticks));
+      sb.append(String.format("%8s %12s %10s %10s %12s %10s%n",
+                              "segmento", "ocupacion", "esperando", "max", "espera", "max"));
+      for (int s = 0; s < esperaMedia.length; s++) {
+        sb.append(String.format("%8d %11.1f%% %10d %10d %12.2f %10d%n",
+                                s + 1, 100 * ocupacionMedia[s] / carriles, esperando[s],
+                                esperandoMaximo[s], esperaMedia[s], esperaMaxima[s]));
+      }
+      sb.append("cuello de botella: segmento ").append(cuello());
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package cc.carretera;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Clase de hilo con la que se ejecuta cada coche.
+ *
+ * PLATAFORMA usa un hilo del sistema por coche, lo que limita una
+ * simulación a unos pocos miles de coches. VIRTUAL usa hilos virtuales
+ * (Java 21 o posterior), que cuestan unos cientos de bytes mientras
+ * están bloqueados y permiten simular cientos de miles de coches.
+ *
+ * Los hilos virtuales se crean por reflexión para que el código siga
+ * compilando con Java 17.
+ */
+public enum ModoHilos {
+  PLATAFORMA,
+  VIRTUAL;
+
+  // Thread.ofVirtual(), Thread.Builder.name(String) y
+  // Thread.Builder.unstarted(Runnable), o null antes de Java 21
+  private static final MethodHandle OF_VIRTUAL;
+  private static final MethodHandle NAME;
+  private static final MethodHandle UNSTARTED;
+
+  static {
+    MethodHandle ofVirtual = null;
+    MethodHandle name = null;
+    MethodHandle unstarted = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualBuilder));
+      name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class));
+      unstarted = lookup.findVirtual(builder, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+    } catch (ReflectiveOperationException e) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  /**
+   * Indica si la máquina virtual admite hilos virtuales.
+   */
+  public static boolean virtualesDisponibles() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Crea, sin arrancarlo, un hilo de esta clase que ejecuta la tarea.
+   */
+  public Thread crear(String nombre, Runnable tarea) {
+    if (this == PLATAFORMA) {
+      return new Thread(tarea, nombre);
+    }
+    if (!virtualesDisponibles()) {
+      throw new UnsupportedOperationException("los hilos virtuales necesitan Java 21 o posterior (version actual "
+                                              + System.getProperty("java.version") + ")");
+    }
+    try {
+      Object builder = OF_VIRTUAL.invoke();
+      builder = NAME.invoke(builder, nombre);
+      return (Thread) UNSTARTED.invoke(builder, tarea);
+    } catch (Throwable exc) {
+      throw new IllegalStateException("no se pudo crear el hilo virtual " + nombre, exc);
+    }
+  }
+
+  /**
+   * Modo de nombre dado: "plataforma" o "virtual".
+   */
+  public static ModoHilos deNombre(String nombre) {
+    return valueOf(nombre.toUpperCase());
+  }
+}
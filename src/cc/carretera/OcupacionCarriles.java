@@ -0,0 +1,110 @@
+package cc.carretera;
+
+/**
+ * Carriles ocupados de cada segmento de una carretera guardados como
+ * un mapa de bits por segmento. Con hasta 64 carriles cada segmento
+ * es un único long y buscar el primer carril libre es una instrucción;
+ * en carreteras más anchas cada segmento ocupa varias palabras.
+ *
+ * No está sincronizada: la usa quien ya tiene la exclusión mutua
+ * sobre el estado de la carretera.
+ */
+class OcupacionCarriles {
+  private final int segmentos;
+  private final int carriles;
+  // Palabras de 64 bits por segmento
+  private final int palabras;
+  // Bit c-1 a 1 si el carril c está ocupado. Los bits que sobran en
+  // la última palabra de cada segmento están siempre a 1.
+  private final long[] bits;
+  // Número de carriles libres por segmento
+  private final int[] libres;
+
+  OcupacionCarriles(int segmentos, int carriles) {
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    this.palabras = (carriles + 63) >>> 6;
+    this.bits = new long[segmentos * palabras];
+    this.libres = new int[segmentos];
+    int sobrantes = palabras * 64 - carriles;
+    for (int s = 0; s < segmentos; s++) {
+      libres[s] = carriles;
+      if (sobrantes > 0) {
+        bits[s * palabras + palabras - 1] = -1L << (64 - sobrantes);
+      }
+    }
+  }
+
+  int segmentos() {
+    return segmentos;
+  }
+
+  int carriles() {
+    return carriles;
+  }
+
+  /**
+   * Indica si el segmento tiene algún carril libre.
+   */
+  boolean hayLibre(int segmento) {
+    return libres[segmento - 1] > 0;
+  }
+
+  /**
+   * Número de carriles ocupados en el segmento.
+   */
+  int ocupados(int segmento) {
+    return carriles - libres[segmento - 1];
+  }
+
+  /**
+   * Devuelve el carril libre más bajo del segmento o 0 si están todos
+   * ocupados.
+   */
+  int primerLibre(int segmento) {
+    if (libres[segmento - 1] == 0)
+      return 0;
+    int base = (segmento - 1) * palabras;
+    for (int p = 0; p < palabras; p++) {
+      long libresPalabra = ~bits[base + p];
+      if (libresPalabra != 0) {
+        return (p << 6) + Long.numberOfTrailingZeros(libresPalabra) + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Indica si el carril está ocupado.
+   */
+  boolean ocupado(int segmento, int carril) {
+    int i = (segmento - 1) * palabras + ((carril - 1) >>> 6);
+    return (bits[i] & (1L << (carril - 1))) != 0;
+  }
+
+  /**
+   * Marca el carril como ocupado.
+   */
+  void ocupar(int segmento, int carril) {
+    int i = (segmento - 1) * palabras + ((carril - 1) >>> 6);
+    long bit = 1L << (carril - 1);
+    if ((bits[i] & bit) != 0) {
+      throw new IllegalStateException("el carril " + carril + " del segmento " + segmento + " ya esta ocupado");
+    }
+    bits[i] |= bit;
+    libres[segmento - 1]--;
+  }
+
+  /**
+   * Marca el carril como libre.
+   */
+  void liberar(int segmento, int carril) {
+    int i = (segmento - 1) * palabras + ((carril - 1) >>> 6);
+    long bit = 1L << (carril - 1);
+    if ((bits[i] & bit) == 0) {
+      throw new IllegalStateException("el carril " + carril + " del segmento " + segmento + " ya esta libre");
+    }
+    bits[i] &= ~bit;
+    libres[segmento - 1]++;
+  }
+}
@@ -2,10 +2,23 @@ package cc.carretera;
 
 /**
  * Una posicion en la carretera: un segmento y un carril.
+ *
+ * Las posiciones son inmutables, asi que las implementaciones pueden
+ * usar Pos.of, que devuelve siempre el mismo objeto para un segmento y
+ * carril dentro de las dimensiones reservadas con Pos.reservar, en vez
+ * de crear uno nuevo en cada entrar/avanzar.
  */
 public class Pos {
-  private int segmento;
-  private int carril;
+  // Maximo de posiciones compartidas, para no llenar la memoria con
+  // carreteras enormes (fuera de la rejilla Pos.of crea objetos nuevos)
+  private static final int MAX_COMPARTIDAS = 1 << 20;
+
+  // Posiciones compartidas: rejilla[s-1][c-1] es Pos(s,c). Solo crece y
+  // se sustituye entera, de modo que se puede leer sin sincronizar.
+  private static volatile Pos[][] rejilla = new Pos[0][0];
+
+  private final int segmento;
+  private final int carril;
 
   /**
    * Crea una posicion.
@@ -18,6 +31,44 @@ public class Pos {
     this.carril = carril;
   }
 
+  /**
+   * Devuelve la posicion compartida (segmento, carril) si esta dentro de
+   * las dimensiones reservadas y una nueva en otro caso.
+   */
+  public static Pos of(int segmento, int carril) {
+    Pos[][] r = rejilla;
+    if (segmento >= 1 && segmento <= r.length) {
+      Pos[] fila = r[segmento - 1];
+      if (carril >= 1 && carril <= fila.length) {
+        return fila[carril - 1];
+      }
+    }
+    return new Pos(segmento, carril);
+  }
+
+  /**
+   * Reserva las posiciones compartidas de una carretera de las
+   * dimensiones dadas. La llaman las implementaciones de Carretera al
+   * crearse. Las posiciones ya reservadas se conservan.
+   */
+  public static synchronized void reservar(int segmentos, int carriles) {
+    Pos[][] r = rejilla;
+    int anchura = r.length == 0 ? 0 : r[0].length;
+    int nuevosSegmentos = Math.max(r.length, segmentos);
+    int nuevaAnchura = Math.max(anchura, carriles);
+    if ((nuevosSegmentos == r.length && nuevaAnchura == anchura)
+        || (long) nuevosSegmentos * nuevaAnchura > MAX_COMPARTIDAS) {
+      return;
+    }
+    Pos[][] nueva = new Pos[nuevosSegmentos][nuevaAnchura];
+    for (int s = 0; s < nuevosSegmentos; s++) {
+      for (int c = 0; c < nuevaAnchura; c++) {
+        nueva[s][c] = s < r.length && c < anchura ? r[s][c] : new Pos(s + 1, c + 1);
+      }
+    }
+    rejilla = nueva;
+  }
+
   /**
    * Devuelve el segmento.
    */
@@ -33,14 +84,27 @@ public class Pos {
   }
 
   public boolean equals(Object obj) {
-    if (obj instanceof Pos) {
+    if (obj == this) {
+      return true;
+    } else if (obj instanceof Pos) {
       Pos p = (Pos) obj;
       return p.getSegmento() == getSegmento() && p.getCarril() == getCarril();
     } return false;
   }
 
+  /**
+   * Emparejamiento de Szudzik de (segmento, carril), que numera las
+   * posiciones por capas max(segmento, carril) sin huecos: es único sin
+   * depender de las dimensiones de la carretera mientras segmento y
+   * carril no pasen de 65535 (el resultado cabe en 32 bits, aunque como
+   * int pueda ser negativo). Por encima se pliega el valor de 64 bits y
+   * puede haber colisiones.
+   */
   public int hashCode() {
-    return getSegmento()*100 + getCarril();
+    long s = getSegmento();
+    long c = getCarril();
+    long k = s >= c ? s * s + s + c : c * c + s;
+    return (int) (k ^ (k >>> 32));
   }
 
   public String toString() {
@@ -0,0 +1,318 @@
+package cc.carretera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Red de carreteras conectadas: el final de una carretera lleva al
+ * principio de sus siguientes. Una carretera con varias siguientes es
+ * una bifurcación y varias carreteras con la misma siguiente son una
+ * incorporación.
+ *
+ * Un coche recorre una ruta de carreteras conectadas. Al terminar el
+ * último segmento de una carretera pasa a la siguiente: primero entra
+ * en ella (esperando carril libre en su primer segmento si hace falta)
+ * y después sale de la anterior, así que un coche que no cabe retiene
+ * su carril, como en un atasco de verdad. Con ciclos en la red los
+ * coches pueden quedar bloqueados en círculo.
+ *
+ * Cada carretera pertenece a un trabajador, y cada trabajador lleva
+ * una parte de las carreteras. tick() despierta a todos los
+ * trabajadores, que hacen tick() de sus carreteras en paralelo, y
+ * vuelve cuando han terminado todos, así que el tiempo de la red es el
+ * mismo en todas sus carreteras. Las carreteras no comparten estado:
+ * solo se coordinan los coches que pasan de una a otra.
+ *
+ * Uso:
+ *   java -cp bin:lib/* cc.carretera.RedCarreteras [--impl=nombre]
+ *        [--red=0>2,1>2,2>3,2>4] [--segmentos=N] [--carriles=N]
+ *        [--coches=N] [--tps=N] [--trabajadores=N] [--semilla=N]
+ *        [--limite=segundos] [--hilos=plataforma|virtual]
+ *
+ * --red da las conexiones desde>hasta entre carreteras numeradas desde
+ * 0; todas tienen las mismas dimensiones. Los coches empiezan en una
+ * carretera a la que no llega ninguna otra y siguen conexiones al azar
+ * hasta una carretera sin siguientes.
+ */
+public class RedCarreteras {
+
+  // Longitud máxima de una ruta, por si la red tiene ciclos
+  private static final int RUTA_MAXIMA = 64;
+
+  private final List<Carretera> carreteras = new ArrayList<>();
+  private final List<int[]> dimensiones = new ArrayList<>();
+  private final List<List<Integer>> siguientes = new ArrayList<>();
+  private final List<Integer> anteriores = new ArrayList<>();
+
+  // Trabajadores y la barrera por la que pasan en cada tick con el reloj
+  private Trabajador[] trabajadores;
+  private Phaser fase;
+  private volatile boolean parar = false;
+
+  /**
+   * Añade una carretera a la red.
+   *
+   * @return número de la carretera en la red
+   */
+  public int anadir(Carretera cr, int segmentos, int carriles) {
+    if (trabajadores != null) {
+      throw new IllegalStateException("la red ya esta arrancada");
+    }
+    carreteras.add(cr);
+    dimensiones.add(new int[] { segmentos, carriles });
+    siguientes.add(new ArrayList<>());
+    anteriores.add(0);
+    return carreteras.size() - 1;
+  }
+
+  /**
+   * Conecta el final de la carretera desde con el principio de hasta.
+   */
+  public void conectar(int desde, int hasta) {
+    if (desde < 0 || desde >= carreteras.size() || hasta < 0 || hasta >= carreteras.size()) {
+      throw new IllegalArgumentException("carretera inexistente en " + desde + ">" + hasta);
+    }
+    siguientes.get(desde).add(hasta);
+    anteriores.set(hasta, anteriores.get(hasta) + 1);
+  }
+
+  public int carreteras() {
+    return carreteras.size();
+  }
+
+  public Carretera carretera(int i) {
+    return carreteras.get(i);
+  }
+
+  /**
+   * Reparte las carreteras entre n trabajadores y los arranca.
+   */
+  public void arrancar(int n) {
+    if (trabajadores != null) {
+      throw new IllegalStateException("la red ya esta arrancada");
+    }
+    n = Math.max(1, Math.min(n, carreteras.size()));
+    fase = new Phaser(n + 1);
+    trabajadores = new Trabajador[n];
+    for (int t = 0; t < n; t++) {
+      List<Carretera> propias = new ArrayList<>();
+      for (int i = t; i < carreteras.size(); i += n)
+        propias.add(carreteras.get(i));
+      trabajadores[t] = new Trabajador("red-" + t, propias.toArray(new Carretera[0]));
+      trabajadores[t].setDaemon(true);
+      trabajadores[t].start();
+    }
+  }
+
+  /**
+   * Un tick en todas las carreteras, en paralelo. Vuelve cuando todas
+   * lo han dado.
+   */
+  public void tick() {
+    // Una fase para empezar y otra para terminar
+    fase.arriveAndAwaitAdvance();
+    fase.arriveAndAwaitAdvance();
+  }
+
+  /**
+   * Para los trabajadores. No se debe llamar a la vez que tick().
+   */
+  public void terminar() {
+    parar = true;
+    fase.arriveAndDeregister();
+  }
+
+  private class Trabajador extends Thread {
+    private final Carretera[] propias;
+
+    Trabajador(String nombre, Carretera[] propias) {
+      super(nombre);
+      this.propias = propias;
+    }
+
+    public void run() {
+      while (true) {
+        fase.arriveAndAwaitAdvance();
+        if (parar) {
+          fase.arriveAndDeregister();
+          return;
+        }
+        for (Carretera cr : propias)
+          cr.tick();
+        fase.arriveAndAwaitAdvance();
+      }
+    }
+  }
+
+  /**
+   * Ruta al azar: empieza en una carretera sin anteriores y sigue
+   * conexiones hasta una sin siguientes.
+   */
+  public int[] ruta(Random rnd) {
+    List<Integer> entradas = new ArrayList<>();
+    for (int i = 0; i < carreteras.size(); i++) {
+      if (anteriores.get(i) == 0)
+        entradas.add(i);
+    }
+    if (entradas.isEmpty()) {
+      throw new IllegalStateException("la red no tiene carreteras de entrada");
+    }
+    List<Integer> ruta = new ArrayList<>();
+    int c = entradas.get(rnd.nextInt(entradas.size()));
+    ruta.add(c);
+    while (!siguientes.get(c).isEmpty() && ruta.size() < RUTA_MAXIMA) {
+      List<Integer> s = siguientes.get(c);
+      c = s.get(rnd.nextInt(s.size()));
+      ruta.add(c);
+    }
+    return ruta.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Un coche recorre las carreteras de la ruta, comprobando las
+   * posiciones devueltas como CarreteraBatch.
+   */
+  public void recorrer(String id, int velocidad, int[] ruta) {
+    Carretera cr = carreteras.get(ruta[0]);
+    comprobar(cr.entrar(id, velocidad), 1, ruta[0], id);
+    for (int k = 0; k < ruta.length; k++) {
+      int segmentos = dimensiones.get(ruta[k])[0];
+      cr.circulando(id);
+      for (int segmento = 2; segmento <= segmentos; segmento++) {
+        comprobar(cr.avanzar(id, velocidad), segmento, ruta[k], id);
+        cr.circulando(id);
+      }
+      if (k + 1 < ruta.length) {
+        // Paso a la siguiente: se deja el carril al tener sitio en ella
+        Carretera siguiente = carreteras.get(ruta[k + 1]);
+        comprobar(siguiente.entrar(id, velocidad), 1, ruta[k + 1], id);
+        cr.salir(id);
+        cr = siguiente;
+      }
+    }
+    cr.salir(id);
+  }
+
+  private void comprobar(Pos pos, int segmentoEsperado, int carretera, String id) {
+    int carriles = dimensiones.get(carretera)[1];
+    if (pos == null) {
+      throw new IllegalStateException(id + " en la carretera " + carretera + ": posicion NULL");
+    } else if (pos.getSegmento() != segmentoEsperado) {
+      throw new IllegalStateException(id + " en la carretera " + carretera + ": segmento "
+                                      + pos.getSegmento() + " != " + segmentoEsperado);
+    } else if (pos.getCarril() < 1 || pos.getCarril() > carriles) {
+      throw new IllegalStateException(id + " en la carretera " + carretera + ": carril "
+                                      + pos.getCarril() + " fuera de 1.." + carriles);
+    }
+  }
+
+  /**
+   * Simula coches por la red hasta que salen todos o se supera el
+   * tiempo límite. La red tiene que estar arrancada.
+   *
+   * @param nanosPorTick periodo del reloj, 0 para ir lo más rápido posible
+   * @param limiteNanos tiempo máximo de simulación, 0 para no limitarlo
+   */
+  public CarreteraBatch.Resultado ejecutar(int coches, long semilla, ModoHilos modo,
+                                           long nanosPorTick, long limiteNanos) throws InterruptedException {
+    Random rnd = new Random(semilla);
+    CountDownLatch salida = new CountDownLatch(coches);
+    AtomicInteger errores = new AtomicInteger(0);
+    AtomicReference<String> primerError = new AtomicReference<>(null);
+
+    Thread[] hilos = new Thread[coches];
+    for (int i = 0; i < coches; i++) {
+      String id = "c" + i;
+      int velocidad = 1 + rnd.nextInt(4);
+      int[] ruta = ruta(rnd);
+      hilos[i] = modo.crear(id, () -> {
+        try {
+          recorrer(id, velocidad, ruta);
+        } catch (Throwable exc) {
+          errores.incrementAndGet();
+          primerError.compareAndSet(null, id + ": " + exc);
+        } finally {
+          salida.countDown();
+        }
+      });
+      hilos[i].setDaemon(true);
+    }
+
+    Reloj reloj = new Reloj(this::tick, nanosPorTick);
+    reloj.setDaemon(true);
+
+    long inicio = System.nanoTime();
+    for (Thread hilo : hilos)
+      hilo.start();
+    reloj.start();
+
+    boolean completada;
+    if (limiteNanos > 0) {
+      completada = salida.await(limiteNanos, TimeUnit.NANOSECONDS);
+    } else {
+      salida.await();
+      completada = true;
+    }
+    long nanos = System.nanoTime() - inicio;
+    reloj.terminar();
+
+    return new CarreteraBatch.Resultado(coches, reloj.ticks(), nanos, errores.get(), primerError.get(),
+                                        completada, reloj.resumen());
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Map<String, String> op = CarreteraBatch.opciones(args);
+    String impl = op.getOrDefault("impl", "monitor");
+    String conexiones = op.getOrDefault("red", "0>2,1>2,2>3,2>4");
+    int segmentos = Integer.parseInt(op.getOrDefault("segmentos", "5"));
+    int carriles = Integer.parseInt(op.getOrDefault("carriles", "3"));
+    int coches = Integer.parseInt(op.getOrDefault("coches", "100"));
+    int tps = Integer.parseInt(op.getOrDefault("tps", "0"));
+    int trabajadores = Integer.parseInt(op.getOrDefault("trabajadores",
+                                                        "" + Runtime.getRuntime().availableProcessors()));
+    long semilla = Long.parseLong(op.getOrDefault("semilla", "1"));
+    long limite = Long.parseLong(op.getOrDefault("limite", "60"));
+    ModoHilos modo = ModoHilos.deNombre(op.getOrDefault("hilos", "plataforma"));
+
+    // Las carreteras que aparecen en las conexiones
+    List<int[]> aristas = new ArrayList<>();
+    int n = 0;
+    for (String arista : conexiones.split(",")) {
+      String[] extremos = arista.trim().split(">");
+      if (extremos.length != 2) {
+        throw new IllegalArgumentException("conexion mal formada: " + arista + " (se espera desde>hasta)");
+      }
+      int desde = Integer.parseInt(extremos[0].trim());
+      int hasta = Integer.parseInt(extremos[1].trim());
+      aristas.add(new int[] { desde, hasta });
+      n = Math.max(n, Math.max(desde, hasta) + 1);
+    }
+
+    RedCarreteras red = new RedCarreteras();
+    for (int i = 0; i < n; i++)
+      red.anadir(Carreteras.crear(impl, segmentos, carriles), segmentos, carriles);
+    for (int[] a : aristas)
+      red.conectar(a[0], a[1]);
+    red.arrancar(trabajadores);
+
+    System.out.println("Simulation of " + coches + " cars moving in a network of " + n
+                       + " carreteras of segmentos " + segmentos + " with " + carriles + " lanes using "
+                       + impl + " [" + red.trabajadores.length + " trabajadores, hilos "
+                       + modo.name().toLowerCase() + "]");
+
+    long nanosPorTick = tps == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / tps;
+    CarreteraBatch.Resultado res = red.ejecutar(coches, semilla, modo, nanosPorTick,
+                                                TimeUnit.SECONDS.toNanos(limite));
+    System.out.println(res);
+
+    // Las implementaciones CSP dejan vivos sus procesos, salimos explícitamente
+    System.exit(res.completada && res.errores == 0 ? 0 : 1);
+  }
+}
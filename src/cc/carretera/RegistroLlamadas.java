@@ -0,0 +1,178 @@
+package cc.carretera;
+
+import java.util.Arrays;
+import javax.swing.AbstractListModel;
+
+/**
+ * Últimos eventos de una Traza para mostrarlos en una JList, en memoria
+ * constante: un anillo de capacidad fija de registros de la traza (más
+ * la excepción o el mensaje de cada uno, si lo tiene). Al llenarse se
+ * descartan los más antiguos.
+ *
+ * Se puede filtrar por coche y por operación; los eventos que pasan el
+ * filtro se guardan en un segundo anillo con su número de entrada. El
+ * texto de una fila se genera solo cuando la lista la pinta.
+ *
+ * Los eventos se añaden con anadir/mensaje y la lista se entera con
+ * publicar, una vez por tanda. Todo desde el hilo de Swing.
+ */
+public class RegistroLlamadas extends AbstractListModel<String> {
+  private static final long serialVersionUID = 1L;
+
+  // Sin filtro
+  public static final int TODOS = -1;
+
+  private final int capacidad;
+
+  // Entrada n en la posición n % capacidad
+  private final int[] registros;
+  private final Object[] extras;
+  private long entradas = 0;
+
+  // Números de entrada que pasan el filtro, en orden
+  private final long[] filtradas;
+  private long primeraFiltrada = 0;
+  private long finFiltradas = 0;
+
+  // Filtro, TODOS si no hay
+  private int coche = TODOS;
+  private int operacion = TODOS;
+
+  // Cambios desde el último publicar
+  private int filasAntes = 0;
+  private int quitadas = 0;
+
+  private Traza traza;
+  private final int[] r = new int[Traza.REGISTRO];
+
+  public RegistroLlamadas(int capacidad) {
+    this.capacidad = capacidad;
+    registros = new int[capacidad * Traza.REGISTRO];
+    extras = new Object[capacidad];
+    filtradas = new long[capacidad];
+  }
+
+  /**
+   * Vacía el registro; los nombres de los coches se leen de la traza.
+   */
+  public void vaciar(Traza traza) {
+    int filas = getSize();
+    this.traza = traza;
+    entradas = 0;
+    primeraFiltrada = 0;
+    finFiltradas = 0;
+    Arrays.fill(extras, null);
+    filasAntes = 0;
+    quitadas = 0;
+    if (filas > 0)
+      fireIntervalRemoved(this, 0, filas - 1);
+  }
+
+  /**
+   * Añade un evento de la traza con su excepción, si la tiene.
+   */
+  public void anadir(int[] evento, Throwable exc) {
+    int i = nueva();
+    System.arraycopy(evento, 0, registros, i * Traza.REGISTRO, Traza.REGISTRO);
+    extras[i] = exc;
+    filtrarUltima();
+  }
+
+  /**
+   * Añade un texto que no es un evento; pasa cualquier filtro.
+   */
+  public void mensaje(String str) {
+    int i = nueva();
+    Arrays.fill(registros, i * Traza.REGISTRO, (i + 1) * Traza.REGISTRO, -1);
+    extras[i] = str;
+    filtrarUltima();
+  }
+
+  // Reserva la siguiente entrada, descartando la más antigua si hace
+  // falta
+  private int nueva() {
+    if (entradas >= capacidad && primeraFiltrada < finFiltradas
+        && filtradas[(int) (primeraFiltrada % capacidad)] == entradas - capacidad) {
+      primeraFiltrada++;
+      quitadas++;
+    }
+    return (int) (entradas++ % capacidad);
+  }
+
+  // Añade la última entrada a las filtradas si pasa el filtro
+  private void filtrarUltima() {
+    if (pasa(entradas - 1))
+      filtradas[(int) (finFiltradas++ % capacidad)] = entradas - 1;
+  }
+
+  private boolean pasa(long entrada) {
+    int i = (int) (entrada % capacidad) * Traza.REGISTRO;
+    if (registros[i + Traza.TIPO] < 0)
+      return true;
+    return (coche == TODOS || registros[i + Traza.COCHE] == coche)
+      && (operacion == TODOS || registros[i + Traza.OPERACION] == operacion);
+  }
+
+  /**
+   * Cambia el filtro; TODOS para no filtrar por ese campo.
+   */
+  public void filtrar(int coche, int operacion) {
+    publicar();
+    int filas = getSize();
+    this.coche = coche;
+    this.operacion = operacion;
+    primeraFiltrada = 0;
+    finFiltradas = 0;
+    for (long n = Math.max(0, entradas - capacidad); n < entradas; n++) {
+      if (pasa(n))
+        filtradas[(int) (finFiltradas++ % capacidad)] = n;
+    }
+    filasAntes = 0;
+    if (filas > 0)
+      fireIntervalRemoved(this, 0, filas - 1);
+    filasAntes = (int) (finFiltradas - primeraFiltrada);
+    if (filasAntes > 0)
+      fireIntervalAdded(this, 0, filasAntes - 1);
+  }
+
+  /**
+   * Avisa a la lista de los eventos añadidos y descartados desde la
+   * última vez.
+   */
+  public void publicar() {
+    int filas = (int) (finFiltradas - primeraFiltrada);
+    int antes = filasAntes;
+    if (quitadas <= antes) {
+      filasAntes = antes - quitadas;
+      if (quitadas > 0)
+        fireIntervalRemoved(this, 0, quitadas - 1);
+      filasAntes = filas;
+      if (filas > antes - quitadas)
+        fireIntervalAdded(this, antes - quitadas, filas - 1);
+    } else {
+      // Se han descartado filas que la lista no llegó a ver
+      filasAntes = 0;
+      if (antes > 0)
+        fireIntervalRemoved(this, 0, antes - 1);
+      filasAntes = filas;
+      if (filas > 0)
+        fireIntervalAdded(this, 0, filas - 1);
+    }
+    quitadas = 0;
+  }
+
+  // Filas que conoce la lista: las filtradas hasta el último publicar
+  public int getSize() {
+    return filasAntes;
+  }
+
+  public String getElementAt(int fila) {
+    long n = filtradas[(int) ((primeraFiltrada + fila) % capacidad)];
+    int i = (int) (n % capacidad);
+    if (registros[i * Traza.REGISTRO + Traza.TIPO] < 0)
+      return (String) extras[i];
+    System.arraycopy(registros, i * Traza.REGISTRO, r, 0, Traza.REGISTRO);
+    String str = traza == null ? Arrays.toString(r) : traza.texto(r);
+    return extras[i] == null ? str : str + ": " + extras[i];
+  }
+}
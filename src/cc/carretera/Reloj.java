@@ -1,19 +1,168 @@
 package cc.carretera;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Hilo que llama a tick() de una carretera (o a cualquier otra acción
+ * de tick, como el de una RedCarreteras).
+ *
+ * Con periodo, los ticks se programan contra plazos absolutos (inicio +
+ * n * periodo) en lugar de dormir un periodo tras cada tick, así que lo
+ * que tarde cr.tick() no se acumula. El periodo puede bajar hasta los
+ * microsegundos: el hilo se aparca hasta poco antes del plazo y espera
+ * activamente el resto. Se cuentan el retraso de cada tick sobre su
+ * plazo y los plazos perdidos (ticks que salen un periodo o más tarde),
+ * que indican que la implementación no da abasto.
+ *
+ * En modo libre no hay periodo: el siguiente tick se da en cuanto la
+ * condición alDia indica que ningún coche puede moverse sin él (ver
+ * ReposoCoches).
+ */
 public class Reloj extends Thread {
-  private static int MS_POR_TICK
-    = 1000;
-  private Carretera cr;
+  private static final long NANOS_POR_TICK = TimeUnit.MILLISECONDS.toNanos(1000);
+
+  // Margen que se espera activamente antes de cada plazo
+  private static final long NANOS_GIRO = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Runnable tick;
+  // Periodo de los ticks, 0 en modo libre
+  private final long nanosPorTick;
+  // En modo libre, cierto cuando se puede dar el siguiente tick
+  private final BooleanSupplier alDia;
+  private volatile boolean parar = false;
+
+  // Estadísticas
+  private final AtomicLong ticks = new AtomicLong(0);
+  private final AtomicLong perdidos = new AtomicLong(0);
+  private final AtomicLong retrasoTotal = new AtomicLong(0);
+  private final AtomicLong retrasoMaximo = new AtomicLong(0);
 
+  /**
+   * Un tick por segundo.
+   */
   public Reloj(Carretera carretera) {
-    this.cr = carretera;
+    this(carretera::tick, NANOS_POR_TICK, null);
+  }
+
+  /**
+   * Un tick cada nanosPorTick nanosegundos; con 0 los ticks se dan
+   * seguidos, tan rápido como se pueda.
+   */
+  public Reloj(Carretera carretera, long nanosPorTick) {
+    this(carretera::tick, nanosPorTick, null);
+  }
+
+  /**
+   * Modo libre: ejecuta tick en cuanto alDia es cierto. alDia puede
+   * esperar un poco antes de contestar, pero no indefinidamente, para
+   * que el reloj pueda terminar.
+   */
+  public Reloj(Runnable tick, BooleanSupplier alDia) {
+    this(tick, 0, alDia);
+  }
+
+  /**
+   * Ejecuta tick cada nanosPorTick nanosegundos, o seguido con 0.
+   */
+  public Reloj(Runnable tick, long nanosPorTick) {
+    this(tick, nanosPorTick, null);
+  }
+
+  private Reloj(Runnable tick, long nanosPorTick, BooleanSupplier alDia) {
+    super("tick");
+    if (nanosPorTick < 0) {
+      throw new IllegalArgumentException("periodo negativo: " + nanosPorTick);
+    }
+    this.tick = tick;
+    this.nanosPorTick = nanosPorTick;
+    this.alDia = alDia;
   }
 
   public void run() {
-    while (true) {
-      try { sleep(MS_POR_TICK); }
-      catch (Exception e) { }
-      cr.tick();
+    long plazo = System.nanoTime();
+    while (!parar) {
+      if (nanosPorTick > 0) {
+        plazo += nanosPorTick;
+        esperarHasta(plazo);
+        long retraso = System.nanoTime() - plazo;
+        retrasoTotal.addAndGet(retraso);
+        retrasoMaximo.accumulateAndGet(retraso, Math::max);
+        if (retraso >= nanosPorTick)
+          perdidos.incrementAndGet();
+      } else if (alDia != null) {
+        while (!alDia.getAsBoolean()) {
+          if (parar)
+            return;
+          Thread.onSpinWait();
+        }
+      }
+      if (parar)
+        return;
+      tick.run();
+      ticks.incrementAndGet();
+    }
+  }
+
+  // Aparca el hilo hasta cerca del plazo y espera activamente el resto
+  private void esperarHasta(long plazo) {
+    long espera;
+    while ((espera = plazo - System.nanoTime()) > 0 && !parar) {
+      if (espera > NANOS_GIRO)
+        LockSupport.parkNanos(this, espera - NANOS_GIRO);
+      else
+        Thread.onSpinWait();
     }
   }
+
+  /**
+   * Para el reloj después del tick en curso. No interrumpe al hilo:
+   * JCSP no admite interrupciones.
+   */
+  public void terminar() {
+    parar = true;
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Ticks dados.
+   */
+  public long ticks() {
+    return ticks.get();
+  }
+
+  /**
+   * Ticks que han salido un periodo o más tarde de su plazo.
+   */
+  public long perdidos() {
+    return perdidos.get();
+  }
+
+  /**
+   * Retraso medio de los ticks sobre su plazo, en nanosegundos.
+   */
+  public long retrasoMedio() {
+    long n = ticks.get();
+    return n == 0 ? 0 : retrasoTotal.get() / n;
+  }
+
+  /**
+   * Mayor retraso de un tick sobre su plazo, en nanosegundos.
+   */
+  public long retrasoMaximo() {
+    return retrasoMaximo.get();
+  }
+
+  /**
+   * Resumen de las estadísticas en una línea.
+   */
+  public String resumen() {
+    if (nanosPorTick == 0)
+      return String.format("reloj %s: %d ticks", alDia == null ? "continuo" : "libre", ticks());
+    return String.format("reloj %d us/tick: %d ticks, retraso medio %.1f us, maximo %.1f us, %d plazos perdidos",
+                         TimeUnit.NANOSECONDS.toMicros(nanosPorTick), ticks(),
+                         retrasoMedio() / 1e3, retrasoMaximo() / 1e3, perdidos());
+  }
 }
@@ -0,0 +1,171 @@
+package cc.carretera;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Estado de los coches para un reloj libre: dice cuándo ningún coche
+ * puede moverse sin un tick, de modo que se pueda dar el siguiente.
+ *
+ * Los coches avisan antes y después de cada llamada. Con eso se lleva,
+ * desde fuera de la carretera, en qué segmento está cada coche, a qué
+ * segmento pide carril y en qué tick acaba su segmento. Hay reposo
+ * cuando cada coche está esperando un tick que no ha llegado (en
+ * circulando, o sin llamar a la carretera como en ReproductorTraza) o
+ * pidiendo carril en un segmento atascado: lleno de coches que esperan
+ * un tick que no ha llegado o piden carril en el segmento siguiente,
+ * también atascado. Los coches esperan carril dentro de la carretera,
+ * como con cualquier otro reloj.
+ *
+ * El tiempo son los ticks que han empezado: un coche que consigue
+ * carril mientras la carretera hace el tick t lo recibe con el tiempo
+ * t y no cuenta con ese tick. Para que el plazo sea el de la carretera
+ * ningún coche puede recibir dos veces el mismo tick.
+ */
+class ReposoCoches {
+  private final int segmentos;
+  private final int carriles;
+
+  // Coches en cada segmento y coches pidiendo carril en él, contando
+  // solo las llamadas que han vuelto (posición segmento - 1)
+  private final int[] ocupados;
+  private final int[] pidiendo;
+
+  // Coches que no han salido
+  private int vivos;
+  // Coches entre dos llamadas o saliendo
+  private int corriendo;
+  // Coches esperando un tick que ya ha llegado
+  private int vencidos = 0;
+  // Coches esperando por cada tick que no ha llegado
+  private final Map<Long, Integer> porVencer = new HashMap<>();
+  // Si un coche ha fallado ya no se espera a nadie
+  private boolean averiado = false;
+
+  private long ahora = 0;
+
+  ReposoCoches(int segmentos, int carriles, int coches) {
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    this.ocupados = new int[segmentos];
+    this.pidiendo = new int[segmentos];
+    this.vivos = coches;
+    this.corriendo = coches;
+  }
+
+  /**
+   * El coche va a entrar (segmento 1) o avanzar al segmento.
+   */
+  synchronized void pidiendo(int segmento) {
+    corriendo--;
+    pidiendo[segmento - 1]++;
+    avisar();
+  }
+
+  /**
+   * El coche ha vuelto de entrar o avanzar al segmento con tks ticks.
+   *
+   * @return el tick en el que acaba el segmento
+   */
+  synchronized long concedido(int segmento, int tks) {
+    corriendo++;
+    pidiendo[segmento - 1]--;
+    if (segmento > 1)
+      ocupados[segmento - 2]--;
+    ocupados[segmento - 1]++;
+    return ahora + tks;
+  }
+
+  /**
+   * El coche espera, en circulando o sin llamar a la carretera, hasta
+   * el tick plazo.
+   */
+  synchronized void esperando(long plazo) {
+    corriendo--;
+    if (plazo <= ahora)
+      vencidos++;
+    else
+      porVencer.merge(plazo, 1, Integer::sum);
+    avisar();
+  }
+
+  /**
+   * El coche ha dejado de esperar el tick plazo.
+   */
+  synchronized void despierto(long plazo) {
+    corriendo++;
+    if (plazo <= ahora)
+      vencidos--;
+    else
+      porVencer.computeIfPresent(plazo, (p, n) -> n == 1 ? null : n - 1);
+  }
+
+  /**
+   * El coche ha vuelto de salir.
+   */
+  synchronized void salido() {
+    corriendo--;
+    vivos--;
+    ocupados[segmentos - 1]--;
+    avisar();
+  }
+
+  /**
+   * Una llamada del coche ha fallado: desde ahora siempre se puede dar
+   * el siguiente tick, para que nadie se quede esperando.
+   */
+  synchronized void averia() {
+    averiado = true;
+    avisar();
+  }
+
+  /**
+   * Pasa al siguiente tick; se llama justo antes del de la carretera.
+   */
+  synchronized void tick() {
+    ahora++;
+    Integer n = porVencer.remove(ahora);
+    if (n != null)
+      vencidos += n;
+  }
+
+  /**
+   * Espera como mucho un milisegundo a que se pueda dar el siguiente
+   * tick.
+   *
+   * @return si se puede
+   */
+  synchronized boolean enReposo() {
+    if (!reposo()) {
+      try {
+        wait(1);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return reposo();
+  }
+
+  private boolean reposo() {
+    if (averiado)
+      return true;
+    if (vivos == 0 || corriendo > 0 || vencidos > 0)
+      return false;
+    // Todos los coches esperan un tick o piden carril. Los que ocupan
+    // un segmento sin esperar un tick piden carril en el siguiente, así
+    // que un segmento está atascado si está lleno y nadie pide carril
+    // en el siguiente o este también lo está
+    boolean atascado = true;
+    for (int s = segmentos - 1; s >= 0; s--) {
+      atascado = ocupados[s] == carriles && (s == segmentos - 1 || pidiendo[s + 1] == 0 || atascado);
+      if (pidiendo[s] > 0 && !atascado)
+        return false;
+    }
+    return true;
+  }
+
+  private void avisar() {
+    if (reposo())
+      notifyAll();
+  }
+}
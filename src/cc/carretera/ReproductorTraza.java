@@ -0,0 +1,398 @@
+package cc.carretera;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reproduce una traza grabada (ver Traza) contra cualquier
+ * implementación de Carretera: cada coche de la traza hace las mismas
+ * llamadas con las mismas velocidades y no llega a la carretera antes
+ * del tick en el que llegó en la grabación; después sigue el protocolo
+ * de Coche a su ritmo. El reloj da el siguiente tick cuando ningún
+ * coche puede moverse sin él (ver ReposoCoches): cada coche espera en
+ * circulando, espera un carril que no se puede liberar sin el tick o
+ * espera el tick en el que llega. Así el reloj no depende de que la
+ * implementación se comporte como en la grabación.
+ *
+ * No se fuerza nada para seguir la grabación: si la implementación
+ * reparte los carriles o atiende a los coches que esperan en otro
+ * orden, el número de ticks puede ser distinto del grabado, y ambos se
+ * muestran. Las trazas grabadas con el reloj libre de CarreteraBatch
+ * dan los ticks con el mismo criterio y son las que mejor se
+ * reproducen; con los otros relojes se grabaron también ticks en los
+ * que algún coche podía moverse.
+ *
+ * A velocidad grabada, además, cada llamada y cada tick esperan al
+ * instante (relativo al inicio) en el que ocurrieron; si no, se va lo
+ * más rápido posible.
+ *
+ * Se comprueba cada posición devuelta como Sim.checkCall (segmento
+ * esperado y carril en rango) y se cuentan las divergencias de carril
+ * con la grabación, que no son errores pero indican que la
+ * implementación reparte los carriles de otra forma.
+ *
+ * Uso:
+ *   java -cp bin:lib/* cc.carretera.ReproductorTraza --traza=fichero
+ *        [--impl=monitor,csp,...] [--velocidad=grabada|maxima]
+ *        [--segmentos=N] [--carriles=N] [--hilos=plataforma|virtual]
+ *        [--limite=segundos]
+ *
+ * La traza no guarda las dimensiones de la carretera: por defecto se
+ * toman el mayor segmento y el mayor carril devueltos en ella.
+ */
+public class ReproductorTraza {
+  // Una llamada grabada
+  private static class Llamada {
+    final int operacion;
+    final int velocidad;
+    // Tick y nanosegundos desde el inicio en que empezó
+    final int tiempo;
+    final long nanos;
+    // Posición devuelta en la grabación, 0 si no se grabó
+    int segmento;
+    int carril;
+
+    Llamada(int operacion, int velocidad, int tiempo, long nanos) {
+      this.operacion = operacion;
+      this.velocidad = velocidad;
+      this.tiempo = tiempo;
+      this.nanos = nanos;
+    }
+  }
+
+  // Coches y sus llamadas, en orden de aparición en la traza
+  private final List<String> coches = new ArrayList<>();
+  private final List<List<Llamada>> llamadas = new ArrayList<>();
+  // Nanosegundos desde el inicio de cada tick grabado
+  private long[] ticks = new long[16];
+  private int numTicks = 0;
+  private int numLlamadas = 0;
+  private int maxSegmento = 0;
+  private int maxCarril = 0;
+
+  /**
+   * Resultado de una reproducción.
+   */
+  public static class Resultado {
+    // Llamadas que han vuelto, ticks dados y ticks de la grabación
+    public final int llamadas;
+    public final long ticks;
+    public final long ticksGrabados;
+    public final long nanos;
+    public final int errores;
+    public final int divergencias;
+    public final String primerError;
+    public final boolean completada;
+    public final String latencias;
+
+    Resultado(int llamadas, long ticks, long ticksGrabados, long nanos, int errores, int divergencias,
+              String primerError, boolean completada, String latencias) {
+      this.llamadas = llamadas;
+      this.ticks = ticks;
+      this.ticksGrabados = ticksGrabados;
+      this.nanos = nanos;
+      this.errores = errores;
+      this.divergencias = divergencias;
+      this.primerError = primerError;
+      this.completada = completada;
+      this.latencias = latencias;
+    }
+
+    public double llamadasPorSegundo() {
+      return llamadas / (nanos / 1e9);
+    }
+
+    public String toString() {
+      String str = String.format("%d llamadas en %.3f s: %.1f llamadas/s, %d ticks (%d grabados),"
+                                 + " %d divergencias de carril",
+                                 llamadas, nanos / 1e9, llamadasPorSegundo(), ticks, ticksGrabados,
+                                 divergencias);
+      if (!completada)
+        str += "\n*** Error: la reproduccion no termino en el tiempo limite";
+      if (errores > 0)
+        str += "\n*** Error: " + errores + " llamadas erroneas, la primera: " + primerError;
+      return str + "\n" + latencias;
+    }
+  }
+
+  /**
+   * Carga la traza del fichero.
+   */
+  public ReproductorTraza(Path fichero) throws IOException {
+    Map<Integer, Integer> indice = new LinkedHashMap<>();
+    // Última llamada abierta de cada coche, para apuntar su retorno
+    Map<Integer, Llamada> abiertas = new LinkedHashMap<>();
+    long[] inicio = { Long.MIN_VALUE };
+    List<String> nombres = Traza.leerFichero(fichero, r -> {
+      long nanos = Traza.nanos(r);
+      if (inicio[0] == Long.MIN_VALUE)
+        inicio[0] = nanos;
+      nanos -= inicio[0];
+      int op = r[Traza.OPERACION];
+      if (op == Traza.TICK) {
+        if (r[Traza.TIPO] == Traza.LLAMADA) {
+          if (numTicks == ticks.length)
+            ticks = Arrays.copyOf(ticks, 2 * numTicks);
+          ticks[numTicks++] = nanos;
+        }
+        return;
+      }
+      int coche = r[Traza.COCHE];
+      if (r[Traza.TIPO] == Traza.LLAMADA) {
+        Integer i = indice.get(coche);
+        if (i == null) {
+          i = llamadas.size();
+          indice.put(coche, i);
+          llamadas.add(new ArrayList<>());
+          coches.add(null);
+        }
+        Llamada ll = new Llamada(op, r[Traza.VELOCIDAD], r[Traza.TIEMPO], nanos);
+        llamadas.get(i).add(ll);
+        abiertas.put(coche, ll);
+        numLlamadas++;
+      } else if (r[Traza.TIPO] == Traza.RETORNO) {
+        Llamada ll = abiertas.remove(coche);
+        if (ll != null && (op == Traza.ENTRAR || op == Traza.AVANZAR)) {
+          ll.segmento = r[Traza.SEGMENTO];
+          ll.carril = r[Traza.CARRIL];
+          maxSegmento = Math.max(maxSegmento, ll.segmento);
+          maxCarril = Math.max(maxCarril, ll.carril);
+        }
+      }
+    });
+    for (Map.Entry<Integer, Integer> e : indice.entrySet()) {
+      int coche = e.getKey();
+      coches.set(e.getValue(), coche >= 0 && coche < nombres.size() ? nombres.get(coche) : "c" + coche);
+    }
+  }
+
+  public int coches() {
+    return coches.size();
+  }
+
+  public int llamadas() {
+    return numLlamadas;
+  }
+
+  /**
+   * Mayor segmento devuelto en la grabación.
+   */
+  public int segmentos() {
+    return maxSegmento;
+  }
+
+  /**
+   * Mayor carril devuelto en la grabación.
+   */
+  public int carriles() {
+    return maxCarril;
+  }
+
+  /**
+   * Reproduce la traza contra cr.
+   *
+   * @param cr carretera recién creada
+   * @param segmentos segmentos de cr
+   * @param carriles carriles de cr, para comprobar las posiciones
+   * @param grabada si se respetan los instantes grabados
+   * @param modo clase de hilo de los coches
+   * @param limiteNanos tiempo máximo, 0 para no limitarlo
+   */
+  public Resultado reproducir(Carretera cr, int segmentos, int carriles, boolean grabada, ModoHilos modo,
+                              long limiteNanos)
+    throws InterruptedException {
+    CarreteraInstrumentada medida = new CarreteraInstrumentada(cr);
+    int n = coches.size();
+    ReposoCoches reposo = new ReposoCoches(segmentos, carriles, n);
+    CountDownLatch fin = new CountDownLatch(n);
+    Object tickDado = new Object();
+    int[] ahora = { 0 };
+    AtomicInteger hechas = new AtomicInteger(0);
+    AtomicInteger errores = new AtomicInteger(0);
+    AtomicInteger divergencias = new AtomicInteger(0);
+    AtomicReference<String> primerError = new AtomicReference<>(null);
+    long inicio = System.nanoTime();
+
+    Thread[] hilos = new Thread[n];
+    for (int i = 0; i < n; i++) {
+      String id = coches.get(i);
+      List<Llamada> suyas = llamadas.get(i);
+      hilos[i] = modo.crear(id, () -> {
+        // Segmento en el que está el coche y tick en el que lo acaba
+        int segmento = 0;
+        long plazo = 0;
+        try {
+          for (Llamada ll : suyas) {
+            if (segmento == 0) {
+              // Llega a la carretera en el tick grabado
+              reposo.esperando(ll.tiempo);
+              synchronized (tickDado) {
+                while (ahora[0] < ll.tiempo)
+                  tickDado.wait();
+              }
+              reposo.despierto(ll.tiempo);
+            }
+            if (grabada)
+              esperarHasta(inicio + ll.nanos);
+            switch (ll.operacion) {
+              case Traza.ENTRAR:
+              case Traza.AVANZAR:
+                int siguiente = ll.operacion == Traza.ENTRAR ? 1 : segmento + 1;
+                if (siguiente > segmentos) {
+                  throw new IllegalStateException("la traza avanza mas alla del segmento " + segmentos);
+                }
+                reposo.pidiendo(siguiente);
+                llamar(medida, id, ll, carriles, divergencias);
+                segmento = siguiente;
+                plazo = reposo.concedido(segmento, ll.velocidad);
+                break;
+              case Traza.CIRCULANDO:
+                reposo.esperando(plazo);
+                llamar(medida, id, ll, carriles, divergencias);
+                reposo.despierto(plazo);
+                break;
+              default:
+                llamar(medida, id, ll, carriles, divergencias);
+                if (ll.operacion == Traza.SALIR) {
+                  segmento = 0;
+                  reposo.salido();
+                }
+            }
+            hechas.incrementAndGet();
+          }
+          // Si la traza acaba antes de que salga, el coche se queda
+          // ocupando su carril
+          if (segmento > 0)
+            reposo.esperando(Long.MAX_VALUE);
+        } catch (Throwable exc) {
+          reposo.averia();
+          errores.incrementAndGet();
+          primerError.compareAndSet(null, id + ": " + exc);
+        } finally {
+          fin.countDown();
+        }
+      });
+      hilos[i].setDaemon(true);
+    }
+
+    // El reloj da el siguiente tick cuando ningún coche puede moverse
+    // sin él
+    AtomicInteger ticksDados = new AtomicInteger(0);
+    Thread reloj = new Thread(() -> {
+      while (fin.getCount() > 0) {
+        int t = ticksDados.get();
+        if (grabada && t < numTicks)
+          esperarHasta(inicio + ticks[t]);
+        while (!reposo.enReposo()) {
+          if (fin.getCount() == 0)
+            return;
+        }
+        reposo.tick();
+        medida.tick();
+        synchronized (tickDado) {
+          ahora[0] = ticksDados.incrementAndGet();
+          tickDado.notifyAll();
+        }
+      }
+    }, "tick");
+    reloj.setDaemon(true);
+
+    for (Thread hilo : hilos)
+      hilo.start();
+    reloj.start();
+
+    boolean completada;
+    if (limiteNanos > 0) {
+      completada = fin.await(limiteNanos, TimeUnit.NANOSECONDS);
+    } else {
+      fin.await();
+      completada = true;
+    }
+    long nanos = System.nanoTime() - inicio;
+    return new Resultado(hechas.get(), ticksDados.get(), numTicks, nanos, errores.get(), divergencias.get(),
+                         primerError.get(), completada, medida.resumen());
+  }
+
+  // Hace una llamada grabada y comprueba la posición como Sim.checkCall
+  private static void llamar(Carretera cr, String id, Llamada ll, int carriles, AtomicInteger divergencias) {
+    Pos pos;
+    switch (ll.operacion) {
+      case Traza.ENTRAR:
+        pos = cr.entrar(id, ll.velocidad);
+        break;
+      case Traza.AVANZAR:
+        pos = cr.avanzar(id, ll.velocidad);
+        break;
+      case Traza.CIRCULANDO:
+        cr.circulando(id);
+        return;
+      case Traza.SALIR:
+        cr.salir(id);
+        return;
+      default:
+        throw new IllegalStateException("operacion desconocida en la traza: " + ll.operacion);
+    }
+    String llamada = (ll.operacion == Traza.ENTRAR ? "entrar(" : "avanzar(") + id + "," + ll.velocidad + ")";
+    if (pos == null) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio NULL");
+    }
+    if (ll.segmento != 0 && pos.getSegmento() != ll.segmento) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio el segmento "
+                                      + pos.getSegmento() + " != " + ll.segmento);
+    }
+    if (pos.getCarril() < 1 || pos.getCarril() > carriles) {
+      throw new IllegalStateException("la llamada a " + llamada + " devolvio el carril "
+                                      + pos.getCarril() + " fuera de 1.." + carriles);
+    }
+    if (ll.carril != 0 && pos.getCarril() != ll.carril)
+      divergencias.incrementAndGet();
+  }
+
+  private static void esperarHasta(long instante) {
+    long espera;
+    while ((espera = instante - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(espera);
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> op = CarreteraBatch.opciones(args);
+    String fichero = op.get("traza");
+    if (fichero == null) {
+      System.err.println("uso: java cc.carretera.ReproductorTraza --traza=fichero [--impl=a,b,...]"
+                         + " [--velocidad=grabada|maxima] [--segmentos=N] [--carriles=N]"
+                         + " [--hilos=plataforma|virtual] [--limite=segundos]");
+      System.exit(2);
+    }
+    ReproductorTraza rep = new ReproductorTraza(Path.of(fichero));
+    String[] impls = op.getOrDefault("impl", String.join(",", Carreteras.NOMBRES)).split(",");
+    boolean grabada = op.getOrDefault("velocidad", "maxima").equals("grabada");
+    int segmentos = Integer.parseInt(op.getOrDefault("segmentos", String.valueOf(rep.segmentos())));
+    int carriles = Integer.parseInt(op.getOrDefault("carriles", String.valueOf(rep.carriles())));
+    ModoHilos modo = ModoHilos.deNombre(op.getOrDefault("hilos", "plataforma"));
+    long limite = Long.parseLong(op.getOrDefault("limite", "60"));
+
+    System.out.println("Traza " + fichero + ": " + rep.coches() + " coches, " + rep.llamadas()
+                       + " llamadas, carretera de " + segmentos + " segmentos y " + carriles + " carriles");
+    boolean bien = true;
+    for (String impl : impls) {
+      System.out.println("== " + impl);
+      Carretera cr = Carreteras.crear(impl, segmentos, carriles);
+      Resultado res = rep.reproducir(cr, segmentos, carriles, grabada, modo, TimeUnit.SECONDS.toNanos(limite));
+      System.out.println(res);
+      bien &= res.completada && res.errores == 0;
+    }
+    // Las implementaciones CSP dejan vivos sus procesos
+    System.exit(bien ? 0 : 1);
+  }
+}
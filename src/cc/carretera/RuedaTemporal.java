@@ -0,0 +1,105 @@
+package cc.carretera;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Rueda temporal (hashed timing wheel) para saber qué coches terminan
+ * su segmento en cada tick sin recorrer toda la carretera.
+ *
+ * En lugar de restar un tick a cada coche se lleva un reloj global
+ * (ahora) y cada coche tiene un plazo: el tick en el que habrá
+ * recorrido su segmento. Los elementos se guardan en la ranura
+ * plazo % RANURAS y cada tick solo mira la ranura del instante actual,
+ * de modo que su coste depende de los coches que vencen y no de los
+ * que hay en la carretera.
+ *
+ * No está sincronizada: la usa quien ya tiene la exclusión mutua
+ * sobre el estado de la carretera.
+ */
+class RuedaTemporal<T> {
+  private static final int RANURAS = 256;
+  private static final int MASCARA = RANURAS - 1;
+
+  // Elementos y plazos de cada ranura, en arrays que crecen al doble
+  private final Object[][] elementos = new Object[RANURAS][];
+  private final long[][] plazos = new long[RANURAS][];
+  private final int[] tamanos = new int[RANURAS];
+
+  // Ticks transcurridos desde que se creó la rueda
+  private long ahora = 0;
+
+  RuedaTemporal() {
+    for (int r = 0; r < RANURAS; r++) {
+      elementos[r] = new Object[4];
+      plazos[r] = new long[4];
+    }
+  }
+
+  /**
+   * Ticks transcurridos.
+   */
+  long ahora() {
+    return ahora;
+  }
+
+  /**
+   * Programa el vencimiento del elemento dentro de tks ticks.
+   *
+   * @return el plazo, el tick en el que vence
+   */
+  long programar(T elemento, int tks) {
+    long plazo = ahora + Math.max(tks, 0);
+    if (plazo > ahora) {
+      int r = (int) (plazo & MASCARA);
+      int n = tamanos[r];
+      if (n == elementos[r].length) {
+        elementos[r] = Arrays.copyOf(elementos[r], 2 * n);
+        plazos[r] = Arrays.copyOf(plazos[r], 2 * n);
+      }
+      elementos[r][n] = elemento;
+      plazos[r][n] = plazo;
+      tamanos[r] = n + 1;
+    }
+    return plazo;
+  }
+
+  /**
+   * Ticks que faltan para un plazo, 0 si ya ha vencido.
+   */
+  int restantes(long plazo) {
+    return plazo > ahora ? (int) Math.min(plazo - ahora, Integer.MAX_VALUE) : 0;
+  }
+
+  /**
+   * Avanza un tick y entrega los elementos que vencen en él, quitándolos
+   * de la rueda. El orden de entrega dentro de un tick no está definido.
+   */
+  @SuppressWarnings("unchecked")
+  void avanzar(Consumer<T> vencido) {
+    ahora++;
+    int r = (int) (ahora & MASCARA);
+    Object[] elems = elementos[r];
+    long[] pls = plazos[r];
+    int n = tamanos[r];
+    int i = 0;
+    while (i < n) {
+      if (pls[i] == ahora) {
+        T elemento = (T) elems[i];
+        // Quitamos el elemento poniendo el último en su lugar
+        n--;
+        elems[i] = elems[n];
+        pls[i] = pls[n];
+        elems[n] = null;
+        tamanos[r] = n;
+        vencido.accept(elemento);
+        // Por si quien recibe el elemento ha programado otro en esta ranura
+        elems = elementos[r];
+        pls = plazos[r];
+        n = tamanos[r];
+      } else {
+        i++;
+      }
+    }
+  }
+}
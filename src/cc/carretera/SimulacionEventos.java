@@ -0,0 +1,361 @@
+package cc.carretera;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulación de eventos discretos de una carretera, en un solo hilo y
+ * sin relojes de verdad. Reproduce el contrato de Carretera:
+ *
+ * - entrar: el coche ocupa el carril libre más bajo del segmento 1 o
+ *   espera (en orden de llegada) a que quede uno libre.
+ * - circulando: el coche termina su segmento tks ticks después.
+ * - avanzar: el coche ocupa el carril libre más bajo del siguiente
+ *   segmento, dejando libre el suyo, o espera a que quede uno.
+ * - salir: el coche deja libre su carril del último segmento.
+ *
+ * En vez de dormir entre ticks como Reloj, los sucesos se guardan en
+ * una cola de prioridad por tick y la simulación salta directamente al
+ * siguiente tick en el que pasa algo. Para una misma semilla el
+ * resultado es siempre el mismo, de modo que sirve de oráculo rápido
+ * para comparar con las implementaciones concurrentes.
+ *
+ * Uso:
+ *   java -cp bin:lib/* cc.carretera.SimulacionEventos [--segmentos=N]
+ *        [--carriles=N] [--coches=N] [--llegada=ticks] [--semilla=N]
+ *
+ * --llegada es el tiempo medio entre llegadas de coches (0: todos
+ * llegan en el tick 0).
+ */
+public class SimulacionEventos {
+  private final int segmentos;
+  private final int carriles;
+  private final int coches;
+
+  // Datos de cada coche
+  private final int[] velocidad;
+  private final long[] llegada;
+  private final long[] salida;
+  private final int[] segmento;
+  private final int[] carril;
+  // Tick desde el que el coche ocupa su carril
+  private final long[] ocupadoDesde;
+  // Tick en el que el coche terminó su segmento y empezó a esperar
+  private final long[] esperaDesde;
+
+  private final OcupacionCarriles ocupacion;
+
+  // Coches esperando para entrar en cada segmento
+  private final ColaEnteros[] espera;
+
+  // Sucesos pendientes: tick << 32 | coche. Cada coche tiene como mucho
+  // un suceso pendiente: su llegada o el fin de su segmento.
+  private long[] sucesos;
+  private int numSucesos;
+
+  // Métricas
+  private final long[] carrilTicks;
+  private final int[] colaMaxima;
+  private final long[] colaIntegral;
+  private final long[] colaCambio;
+  private final long[] esperaTotal;
+  private long ahora = 0;
+  private long tramos = 0;
+
+  /**
+   * Resultado de una simulación.
+   */
+  public static class Resultado {
+    public final int segmentos;
+    public final int carriles;
+    public final int coches;
+    // Ticks hasta que sale el último coche
+    public final long ticks;
+    // Segmentos recorridos por todos los coches
+    public final long tramos;
+    public final long nanos;
+    public final double transitoMedio;
+    public final long transitoMaximo;
+    // Carril-ticks ocupados, posición (s-1)*carriles + (c-1)
+    public final long[] carrilTicks;
+    // Longitud máxima y media de la cola de espera de cada segmento
+    public final int[] colaMaxima;
+    public final double[] colaMedia;
+    // Ticks esperados en total para entrar en cada segmento
+    public final long[] esperaTotal;
+
+    Resultado(SimulacionEventos sim, long nanos) {
+      this.segmentos = sim.segmentos;
+      this.carriles = sim.carriles;
+      this.coches = sim.coches;
+      this.ticks = sim.ahora;
+      this.tramos = sim.tramos;
+      this.nanos = nanos;
+      long suma = 0;
+      long maximo = 0;
+      for (int i = 0; i < sim.coches; i++) {
+        long transito = sim.salida[i] - sim.llegada[i];
+        suma += transito;
+        maximo = Math.max(maximo, transito);
+      }
+      this.transitoMedio = sim.coches == 0 ? 0 : (double) suma / sim.coches;
+      this.transitoMaximo = maximo;
+      this.carrilTicks = sim.carrilTicks;
+      this.colaMaxima = sim.colaMaxima;
+      this.colaMedia = new double[sim.segmentos];
+      for (int s = 0; s < sim.segmentos; s++) {
+        colaMedia[s] = sim.ahora == 0 ? 0 : (double) sim.colaIntegral[s] / sim.ahora;
+      }
+      this.esperaTotal = sim.esperaTotal;
+    }
+
+    /**
+     * Fracción del tiempo que el carril ha estado ocupado.
+     */
+    public double uso(int segmento, int carril) {
+      return ticks == 0 ? 0 : (double) carrilTicks[(segmento - 1) * carriles + carril - 1] / ticks;
+    }
+
+    public double tramosPorSegundo() {
+      return tramos / (nanos / 1e9);
+    }
+
+    public String toString() {
+      StringBuilder str = new StringBuilder();
+      str.append(String.format("%d coches, %d ticks, transito medio %.2f ticks (maximo %d)%n",
+                               coches, ticks, transitoMedio, transitoMaximo));
+      str.append(String.format("%d segmentos recorridos en %.3f s: %.0f segmentos/s%n",
+                               tramos, nanos / 1e9, tramosPorSegundo()));
+      for (int s = 1; s <= segmentos; s++) {
+        str.append(String.format("segmento %d: cola max %d media %.2f, espera %d ticks, uso",
+                                 s, colaMaxima[s - 1], colaMedia[s - 1], esperaTotal[s - 1]));
+        for (int c = 1; c <= carriles; c++) {
+          str.append(String.format(" %.2f", uso(s, c)));
+        }
+        str.append(String.format("%n"));
+      }
+      return str.toString();
+    }
+  }
+
+  /**
+   * Prepara una simulación.
+   *
+   * @param segmentos número de segmentos
+   * @param carriles número de carriles por segmento
+   * @param coches número de coches
+   * @param llegadaMedia ticks medios entre llegadas de coches
+   * @param semilla semilla de velocidades y llegadas
+   */
+  public SimulacionEventos(int segmentos, int carriles, int coches, double llegadaMedia, long semilla) {
+    if (segmentos < 1 || carriles < 1 || coches < 0 || llegadaMedia < 0) {
+      throw new IllegalArgumentException("segmentos y carriles deben ser >= 1, coches y llegada >= 0");
+    }
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    this.coches = coches;
+    this.velocidad = new int[coches];
+    this.llegada = new long[coches];
+    this.salida = new long[coches];
+    this.segmento = new int[coches];
+    this.carril = new int[coches];
+    this.ocupadoDesde = new long[coches];
+    this.esperaDesde = new long[coches];
+    this.ocupacion = new OcupacionCarriles(segmentos, carriles);
+    this.espera = new ColaEnteros[segmentos];
+    for (int s = 0; s < segmentos; s++) {
+      espera[s] = new ColaEnteros();
+    }
+    this.sucesos = new long[Math.max(16, coches)];
+    this.carrilTicks = new long[segmentos * carriles];
+    this.colaMaxima = new int[segmentos];
+    this.colaIntegral = new long[segmentos];
+    this.colaCambio = new long[segmentos];
+    this.esperaTotal = new long[segmentos];
+
+    // Velocidades entre 1 y 4 como en CarreteraBatch y llegadas
+    // separadas por un tiempo uniforme de media llegadaMedia
+    Random rnd = new Random(semilla);
+    long t = 0;
+    for (int i = 0; i < coches; i++) {
+      velocidad[i] = 1 + rnd.nextInt(4);
+      llegada[i] = t;
+      if (llegadaMedia > 0)
+        t += Math.round(rnd.nextDouble() * 2 * llegadaMedia);
+      programar(llegada[i], i);
+    }
+  }
+
+  /**
+   * Ejecuta la simulación hasta que salen todos los coches.
+   */
+  public Resultado ejecutar() {
+    long inicio = System.nanoTime();
+    while (numSucesos > 0) {
+      long suceso = sacar();
+      ahora = suceso >>> 32;
+      int coche = (int) suceso;
+      if (segmento[coche] == 0) {
+        entrar(coche);
+      } else if (segmento[coche] == segmentos) {
+        salir(coche);
+      } else {
+        avanzar(coche);
+      }
+    }
+    return new Resultado(this, System.nanoTime() - inicio);
+  }
+
+  private void entrar(int coche) {
+    if (ocupacion.hayLibre(1) && espera[0].vacia()) {
+      ocupar(coche, 1);
+    } else {
+      esperar(coche, 1);
+    }
+  }
+
+  private void avanzar(int coche) {
+    int siguiente = segmento[coche] + 1;
+    if (ocupacion.hayLibre(siguiente) && espera[siguiente - 1].vacia()) {
+      int anterior = segmento[coche];
+      liberar(coche);
+      ocupar(coche, siguiente);
+      atenderEspera(anterior);
+    } else {
+      esperar(coche, siguiente);
+    }
+  }
+
+  private void salir(int coche) {
+    liberar(coche);
+    salida[coche] = ahora;
+    atenderEspera(segmentos);
+  }
+
+  // Un carril del segmento ha quedado libre: pasa el primer coche que
+  // espera. Si venía de otro segmento, ha dejado libre un carril en
+  // él y se sigue hacia atrás, sin recursión.
+  private void atenderEspera(int seg) {
+    while (seg >= 1 && ocupacion.hayLibre(seg) && !espera[seg - 1].vacia()) {
+      cambioCola(seg);
+      int coche = espera[seg - 1].sacar();
+      esperaTotal[seg - 1] += ahora - esperaDesde[coche];
+      int anterior = segmento[coche];
+      if (anterior > 0)
+        liberar(coche);
+      ocupar(coche, seg);
+      seg = anterior;
+    }
+  }
+
+  private void esperar(int coche, int seg) {
+    cambioCola(seg);
+    esperaDesde[coche] = ahora;
+    espera[seg - 1].poner(coche);
+    colaMaxima[seg - 1] = Math.max(colaMaxima[seg - 1], espera[seg - 1].tamano());
+  }
+
+  private void ocupar(int coche, int seg) {
+    int c = ocupacion.primerLibre(seg);
+    ocupacion.ocupar(seg, c);
+    segmento[coche] = seg;
+    carril[coche] = c;
+    ocupadoDesde[coche] = ahora;
+    tramos++;
+    programar(ahora + velocidad[coche], coche);
+  }
+
+  private void liberar(int coche) {
+    int seg = segmento[coche];
+    ocupacion.liberar(seg, carril[coche]);
+    carrilTicks[(seg - 1) * carriles + carril[coche] - 1] += ahora - ocupadoDesde[coche];
+  }
+
+  // Acumula la longitud de la cola del segmento hasta ahora
+  private void cambioCola(int seg) {
+    colaIntegral[seg - 1] += espera[seg - 1].tamano() * (ahora - colaCambio[seg - 1]);
+    colaCambio[seg - 1] = ahora;
+  }
+
+  // Montículo binario de sucesos
+  private void programar(long tick, int coche) {
+    if (numSucesos == sucesos.length)
+      sucesos = Arrays.copyOf(sucesos, 2 * numSucesos);
+    long suceso = tick << 32 | coche;
+    int i = numSucesos++;
+    while (i > 0) {
+      int padre = (i - 1) >>> 1;
+      if (sucesos[padre] <= suceso)
+        break;
+      sucesos[i] = sucesos[padre];
+      i = padre;
+    }
+    sucesos[i] = suceso;
+  }
+
+  private long sacar() {
+    long primero = sucesos[0];
+    long ultimo = sucesos[--numSucesos];
+    int i = 0;
+    while (true) {
+      int hijo = 2 * i + 1;
+      if (hijo >= numSucesos)
+        break;
+      if (hijo + 1 < numSucesos && sucesos[hijo + 1] < sucesos[hijo])
+        hijo++;
+      if (ultimo <= sucesos[hijo])
+        break;
+      sucesos[i] = sucesos[hijo];
+      i = hijo;
+    }
+    sucesos[i] = ultimo;
+    return primero;
+  }
+
+  // Cola FIFO de enteros sin objetos por elemento
+  private static class ColaEnteros {
+    private int[] elementos = new int[8];
+    private int primero = 0;
+    private int tamano = 0;
+
+    boolean vacia() {
+      return tamano == 0;
+    }
+
+    int tamano() {
+      return tamano;
+    }
+
+    void poner(int e) {
+      if (tamano == elementos.length) {
+        int[] nuevos = new int[2 * tamano];
+        for (int i = 0; i < tamano; i++)
+          nuevos[i] = elementos[(primero + i) % elementos.length];
+        elementos = nuevos;
+        primero = 0;
+      }
+      elementos[(primero + tamano) % elementos.length] = e;
+      tamano++;
+    }
+
+    int sacar() {
+      int e = elementos[primero];
+      primero = (primero + 1) % elementos.length;
+      tamano--;
+      return e;
+    }
+  }
+
+  public static void main(String[] args) {
+    Map<String, String> op = CarreteraBatch.opciones(args);
+    int segmentos = Integer.parseInt(op.getOrDefault("segmentos", "5"));
+    int carriles = Integer.parseInt(op.getOrDefault("carriles", "3"));
+    int coches = Integer.parseInt(op.getOrDefault("coches", "100000"));
+    double llegada = Double.parseDouble(op.getOrDefault("llegada", "0"));
+    long semilla = Long.parseLong(op.getOrDefault("semilla", "1"));
+
+    SimulacionEventos sim = new SimulacionEventos(segmentos, carriles, coches, llegada, semilla);
+    System.out.print(sim.ejecutar());
+  }
+}
@@ -0,0 +1,408 @@
+package cc.carretera;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Traza binaria de los eventos de una simulación. Cada evento es un
+ * registro de tamaño fijo (REGISTRO enteros) que se escribe en un
+ * anillo preasignado, sin crear objetos ni textos: quien registra
+ * reserva un número de secuencia con un incremento atómico, copia los
+ * campos en su hueco y lo publica. Si el anillo da la vuelta antes de
+ * que se lean los registros, los más viejos se pierden y se cuentan.
+ *
+ * Opcionalmente un hilo escritor vuelca los registros a un fichero
+ * proyectado en memoria. El texto de un evento solo se genera cuando
+ * alguien lo pide (texto()).
+ *
+ * Formato del fichero: un entero MAGICO, un entero REGISTRO y después
+ * los registros, cada uno con REGISTRO enteros en orden nativo de
+ * bytes. Los nombres de los coches se guardan aparte, uno por línea,
+ * en el fichero con sufijo ".coches".
+ */
+public class Traza {
+  /**
+   * Enteros por registro.
+   */
+  public static final int REGISTRO = 10;
+
+  // Campos de un registro
+  public static final int TIPO = 0;
+  public static final int OPERACION = 1;
+  public static final int COCHE = 2;
+  // Tiempo de la simulación en ticks
+  public static final int TIEMPO = 3;
+  public static final int VELOCIDAD = 4;
+  public static final int SEGMENTO = 5;
+  public static final int CARRIL = 6;
+  // Segmento esperado en un FALLO
+  public static final int ESPERADO = 7;
+  // Tiempo en el que empezó la llamada, en un RETORNO
+  public static final int INICIO = 7;
+  // System.nanoTime() del evento, parte alta y baja
+  public static final int NANOS_ALTO = 8;
+  public static final int NANOS_BAJO = 9;
+
+  // Tipos de evento
+  public static final int LLAMADA = 0;
+  public static final int RETORNO = 1;
+  public static final int ERROR = 2;
+  public static final int FALLO = 3;
+
+  // Operaciones
+  public static final int ENTRAR = 0;
+  public static final int AVANZAR = 1;
+  public static final int CIRCULANDO = 2;
+  public static final int SALIR = 3;
+  public static final int TICK = 4;
+
+  private static final String[] OPERACIONES = { "entrar", "avanzar", "circulando", "salir", "tick" };
+
+  // Cabecera del fichero
+  private static final int MAGICO = 0x545A5231;
+
+  // Bytes proyectados cada vez que el fichero se queda corto
+  private static final int TROZO = 16 << 20;
+
+  private final int capacidad;
+  private final int mascara;
+  private final int[] anillo;
+  // Secuencia publicada en cada hueco, -1 si está vacío
+  private final AtomicLongArray publicado;
+  // Siguiente secuencia a reservar
+  private final AtomicLong siguiente = new AtomicLong(0);
+
+  // Nombres de los coches, el coche n en la posición n
+  private final Map<String, Integer> porNombre = new ConcurrentHashMap<>();
+  private final List<String> nombres = new ArrayList<>();
+  // Excepciones de los eventos ERROR, por secuencia
+  private final Map<Long, Throwable> excepciones = new ConcurrentHashMap<>();
+
+  // Volcado a fichero
+  private final Path fichero;
+  private final Thread escritor;
+  private volatile boolean cerrada = false;
+  private final AtomicLong perdidos = new AtomicLong(0);
+  private long escritos = 0;
+
+  /**
+   * Traza en memoria con al menos capacidad registros.
+   */
+  public Traza(int capacidad) {
+    this(capacidad, null);
+  }
+
+  /**
+   * Traza que además se vuelca al fichero dado.
+   */
+  public Traza(int capacidad, Path fichero) {
+    int c = Integer.highestOneBit(Math.max(capacidad, 2) - 1) << 1;
+    this.capacidad = c;
+    this.mascara = c - 1;
+    this.anillo = new int[c * REGISTRO];
+    this.publicado = new AtomicLongArray(c);
+    for (int i = 0; i < c; i++) {
+      publicado.set(i, -1);
+    }
+    this.fichero = fichero;
+    if (fichero != null) {
+      this.escritor = new Thread(this::volcar, "traza");
+      this.escritor.setDaemon(true);
+      this.escritor.start();
+    } else {
+      this.escritor = null;
+    }
+  }
+
+  /**
+   * Número de un coche en la traza, se asigna la primera vez.
+   */
+  public int coche(String nombre) {
+    Integer n = porNombre.get(nombre);
+    if (n != null)
+      return n;
+    synchronized (nombres) {
+      n = porNombre.get(nombre);
+      if (n == null) {
+        n = nombres.size();
+        nombres.add(nombre);
+        porNombre.put(nombre, n);
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Nombre de un coche de la traza.
+   */
+  public String nombre(int coche) {
+    synchronized (nombres) {
+      return coche >= 0 && coche < nombres.size() ? nombres.get(coche) : "c" + coche;
+    }
+  }
+
+  /**
+   * Nombre de una operación.
+   */
+  public static String operacion(int op) {
+    return op >= 0 && op < OPERACIONES.length ? OPERACIONES[op] : "?" + op;
+  }
+
+  /**
+   * Registra un evento. El último campo es ESPERADO en un FALLO e
+   * INICIO en un RETORNO.
+   *
+   * @return su número de secuencia
+   */
+  public long registrar(int tipo, int operacion, int coche, int tiempo, int velocidad,
+                        int segmento, int carril, int esperado) {
+    long seq = siguiente.getAndIncrement();
+    int hueco = (int) (seq & mascara);
+    int base = hueco * REGISTRO;
+    long nanos = System.nanoTime();
+    // Se invalida el hueco mientras se escribe. Sin la barrera las
+    // escrituras normales del registro podrían adelantarse al -1 y un
+    // lector daría por bueno un registro a medias.
+    publicado.set(hueco, -1);
+    VarHandle.storeStoreFence();
+    anillo[base + TIPO] = tipo;
+    anillo[base + OPERACION] = operacion;
+    anillo[base + COCHE] = coche;
+    anillo[base + TIEMPO] = tiempo;
+    anillo[base + VELOCIDAD] = velocidad;
+    anillo[base + SEGMENTO] = segmento;
+    anillo[base + CARRIL] = carril;
+    anillo[base + ESPERADO] = esperado;
+    anillo[base + NANOS_ALTO] = (int) (nanos >>> 32);
+    anillo[base + NANOS_BAJO] = (int) nanos;
+    publicado.set(hueco, seq);
+    return seq;
+  }
+
+  /**
+   * Registra un evento ERROR con su excepción.
+   */
+  public long registrarError(int operacion, int coche, int tiempo, int velocidad, Throwable exc) {
+    long seq = registrar(ERROR, operacion, coche, tiempo, velocidad, 0, 0, 0);
+    excepciones.put(seq, exc);
+    return seq;
+  }
+
+  /**
+   * Secuencia del siguiente evento que se registre.
+   */
+  public long fin() {
+    return siguiente.get();
+  }
+
+  /**
+   * Copia el registro seq en destino.
+   *
+   * @return false si aún no está publicado o si el anillo ya lo ha
+   *         sobrescrito
+   */
+  public boolean leer(long seq, int[] destino) {
+    int hueco = (int) (seq & mascara);
+    if (publicado.get(hueco) != seq)
+      return false;
+    System.arraycopy(anillo, hueco * REGISTRO, destino, 0, REGISTRO);
+    // Si alguien ha escrito en el hueco mientras copiábamos, no vale. La
+    // barrera impide que la comprobación se adelante a la copia.
+    VarHandle.loadLoadFence();
+    return publicado.get(hueco) == seq;
+  }
+
+  /**
+   * Si el registro seq ya no está en el anillo.
+   */
+  public boolean perdido(long seq) {
+    return seq < siguiente.get() - capacidad;
+  }
+
+  /**
+   * Excepción de un evento ERROR, si se conserva.
+   */
+  public Throwable excepcion(long seq) {
+    return excepciones.get(seq);
+  }
+
+  /**
+   * Registros que el escritor no llegó a volcar.
+   */
+  public long perdidos() {
+    return perdidos.get();
+  }
+
+  /**
+   * Texto de un registro.
+   */
+  public String texto(int[] r) {
+    String llamada = llamada(r);
+    switch (r[TIPO]) {
+      case LLAMADA:
+        return "time " + r[TIEMPO] + ":  " + llamada;
+      case RETORNO:
+        String str = "time " + r[TIEMPO] + ":  " + llamada + " returned";
+        if (r[OPERACION] == ENTRAR || r[OPERACION] == AVANZAR)
+          str += " (" + r[SEGMENTO] + "," + r[CARRIL] + ")";
+        if (r[INICIO] != r[TIEMPO])
+          str += " [started at time " + r[INICIO] + "]";
+        return str;
+      case ERROR:
+        return "*** Error: exception thrown by " + llamada;
+      case FALLO:
+        if (r[SEGMENTO] == 0)
+          return "*** Error: The call to " + llamada + " returned a NULL value";
+        if (r[SEGMENTO] != r[ESPERADO])
+          return "*** Error: The call to " + llamada + " returned a segmento " + r[SEGMENTO]
+            + " != expected value " + r[ESPERADO];
+        return "*** Error: The call to " + llamada + " returned a carril " + r[CARRIL]
+          + " out of range";
+      default:
+        return "*** Internal error: unknown event " + r[TIPO];
+    }
+  }
+
+  private String llamada(int[] r) {
+    int op = r[OPERACION];
+    String str = operacion(op) + "(";
+    if (op != TICK)
+      str += nombre(r[COCHE]);
+    if (op == ENTRAR || op == AVANZAR)
+      str += "," + r[VELOCIDAD];
+    return str + ")";
+  }
+
+  /**
+   * Nanosegundos (System.nanoTime) de un registro.
+   */
+  public static long nanos(int[] r) {
+    return ((long) r[NANOS_ALTO] << 32) | (r[NANOS_BAJO] & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Deja de volcar, espera a que el escritor vacíe el anillo y cierra
+   * el fichero.
+   */
+  public void cerrar() throws InterruptedException {
+    cerrada = true;
+    if (escritor != null) {
+      LockSupport.unpark(escritor);
+      escritor.join();
+    }
+  }
+
+  // Bucle del escritor: lleva al fichero todo lo publicado
+  private void volcar() {
+    int[] r = new int[REGISTRO];
+    try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long posicion = 0;
+      MappedByteBuffer buf = proyectar(canal, posicion);
+      buf.putInt(MAGICO).putInt(REGISTRO);
+      while (true) {
+        boolean terminar = cerrada;
+        long fin = siguiente.get();
+        while (escritos < fin) {
+          if (perdido(escritos)) {
+            // El anillo ha dado la vuelta, saltamos a lo más viejo que queda
+            long salto = fin - capacidad;
+            perdidos.addAndGet(salto - escritos);
+            escritos = salto;
+          }
+          if (!leer(escritos, r)) {
+            if (perdido(escritos))
+              continue;
+            // Aún se está escribiendo
+            break;
+          }
+          if (buf.remaining() < REGISTRO * 4) {
+            posicion += buf.position();
+            buf.force();
+            buf = proyectar(canal, posicion);
+          }
+          for (int i = 0; i < REGISTRO; i++) {
+            buf.putInt(r[i]);
+          }
+          escritos++;
+        }
+        if (terminar && escritos >= siguiente.get())
+          break;
+        LockSupport.parkNanos(this, 1_000_000);
+      }
+      buf.force();
+      canal.truncate(posicion + buf.position());
+      synchronized (nombres) {
+        Files.write(Path.of(fichero + ".coches"), nombres, StandardCharsets.UTF_8);
+      }
+    } catch (IOException e) {
+      System.err.println("*** Error: no se pudo escribir la traza en " + fichero + ": " + e);
+    }
+  }
+
+  /**
+   * Muestra como texto un fichero de traza.
+   *
+   * Uso: java -cp bin cc.carretera.Traza fichero
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("uso: java cc.carretera.Traza fichero");
+      System.exit(2);
+    }
+    Traza nombres = new Traza(2);
+    List<int[]> registros = new ArrayList<>();
+    for (String nombre : leerFichero(Path.of(args[0]), r -> registros.add(r.clone()))) {
+      nombres.coche(nombre);
+    }
+    for (int[] r : registros) {
+      System.out.println(nombres.texto(r));
+    }
+  }
+
+  private static MappedByteBuffer proyectar(FileChannel canal, long posicion) throws IOException {
+    MappedByteBuffer buf = canal.map(FileChannel.MapMode.READ_WRITE, posicion, TROZO);
+    buf.order(ByteOrder.nativeOrder());
+    return buf;
+  }
+
+  /**
+   * Lee un fichero de traza y entrega sus registros en orden. El array
+   * se reutiliza en cada llamada.
+   *
+   * @return los nombres de los coches, el coche n en la posición n
+   */
+  public static List<String> leerFichero(Path fichero, Consumer<int[]> registro) throws IOException {
+    try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+      buf.order(ByteOrder.nativeOrder());
+      if (buf.remaining() < 8 || buf.getInt() != MAGICO || buf.getInt() != REGISTRO) {
+        throw new IOException("no es un fichero de traza: " + fichero);
+      }
+      int[] r = new int[REGISTRO];
+      while (buf.remaining() >= REGISTRO * 4) {
+        for (int i = 0; i < REGISTRO; i++) {
+          r[i] = buf.getInt();
+        }
+        registro.accept(r);
+      }
+    }
+    Path coches = Path.of(fichero + ".coches");
+    return Files.exists(coches) ? Files.readAllLines(coches, StandardCharsets.UTF_8) : new ArrayList<>();
+  }
+}
@@ -0,0 +1,324 @@
+package cc.carretera;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Vista de una carretera pintada a mano: la rejilla segmentos x carriles
+ * se dibuja a partir de arrays de enteros, sin un componente por celda.
+ *
+ * Los segmentos van de izquierda a derecha y el carril 1 abajo. Los
+ * carriles ocupan todo el alto; la rueda del ratón acerca o aleja los
+ * segmentos alrededor del puntero, arrastrar desplaza la carretera y el
+ * doble clic la vuelve a ajustar al ancho. Solo se pintan las celdas
+ * visibles, y el nombre de los coches solo si cabe.
+ *
+ * Los cambios (poner, quitar, tick) solo marcan celdas sucias; un
+ * temporizador las repinta como mucho FPS veces por segundo. Todos los
+ * métodos se llaman desde el hilo de Swing.
+ */
+public class VistaCarretera extends JComponent {
+  private static final long serialVersionUID = 1L;
+
+  // Repintados por segundo como máximo
+  public static final int FPS = 25;
+
+  // Ancho máximo de un segmento en píxeles
+  private static final double ANCHO_MAXIMO = 200;
+
+  // Ancho mínimo de una celda para escribir el coche
+  private static final int ANCHO_TEXTO = 48;
+
+  private static final Color FONDO = new Color(0x3c, 0x3c, 0x3c);
+  private static final Color LINEAS = new Color(0x90, 0x90, 0x90);
+
+  private final int segmentos;
+  private final int carriles;
+
+  // Por celda (segmento - 1) * carriles + carril - 1: coche + 1 (0 si
+  // está libre) y ticks que le quedan
+  private final int[] coche;
+  private final int[] tks;
+
+  // Celda de cada coche, -1 si no está en la carretera
+  private int[] celdaDe = new int[0];
+  private int enCarretera = 0;
+
+  // Nombre de cada coche
+  private IntFunction<String> nombres = String::valueOf;
+  private Color[] colores = new Color[0];
+
+  private final BitSet sucias = new BitSet();
+  private final Timer fotogramas;
+
+  // Ancho de un segmento en píxeles y posición x del segmento 1; 0 si
+  // se ajusta al ancho del componente
+  private double ancho = 0;
+  private double origen = 0;
+
+  public VistaCarretera(int segmentos, int carriles) {
+    this.segmentos = segmentos;
+    this.carriles = carriles;
+    coche = new int[segmentos * carriles];
+    tks = new int[segmentos * carriles];
+    setOpaque(true);
+    setDoubleBuffered(true);
+    setPreferredSize(new Dimension(800, Math.min(400, Math.max(120, 40 * carriles))));
+
+    MouseAdapter raton = new MouseAdapter() {
+      private int x;
+
+      public void mousePressed(MouseEvent e) {
+        x = e.getX();
+      }
+
+      public void mouseDragged(MouseEvent e) {
+        desplazar(e.getX() - x);
+        x = e.getX();
+      }
+
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        zoom(e.getX(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+      }
+
+      public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() == 2)
+          ajustar();
+      }
+    };
+    addMouseListener(raton);
+    addMouseMotionListener(raton);
+    addMouseWheelListener(raton);
+
+    fotogramas = new Timer(1000 / FPS, e -> repintarSucias());
+    fotogramas.start();
+  }
+
+  /**
+   * Nombres de los coches a partir de su número.
+   */
+  public void nombres(IntFunction<String> nombres) {
+    this.nombres = nombres;
+    sucias.set(0, coche.length);
+  }
+
+  /**
+   * Pone el coche en la posición, quitándolo de donde estuviera. Los
+   * retornos se trazan después de volver de la llamada, así que un coche
+   * puede llegar a una celda antes de que se vea salir al anterior: ese
+   * deja de estar en la vista hasta su siguiente evento.
+   */
+  public void poner(int c, int segmento, int carril, int ticks) {
+    quitar(c);
+    int celda = (segmento - 1) * carriles + carril - 1;
+    if (coche[celda] != 0) {
+      celdaDe[coche[celda] - 1] = -1;
+      enCarretera--;
+    }
+    coche[celda] = c + 1;
+    tks[celda] = ticks;
+    celdaDe[c] = celda;
+    enCarretera++;
+    sucias.set(celda);
+  }
+
+  /**
+   * Quita el coche de la carretera, si está en ella.
+   */
+  public void quitar(int c) {
+    if (c >= celdaDe.length) {
+      int n = celdaDe.length;
+      celdaDe = Arrays.copyOf(celdaDe, Math.max(c + 1, 2 * n));
+      Arrays.fill(celdaDe, n, celdaDe.length, -1);
+    }
+    int celda = celdaDe[c];
+    if (celda < 0)
+      return;
+    celdaDe[c] = -1;
+    enCarretera--;
+    // Solo si la celda sigue siendo suya
+    if (coche[celda] == c + 1) {
+      coche[celda] = 0;
+      tks[celda] = 0;
+      sucias.set(celda);
+    }
+  }
+
+  /**
+   * Descuenta un tick a los coches en la carretera: solo cambian sus
+   * celdas.
+   */
+  public void tick() {
+    int quedan = enCarretera;
+    for (int c = 0; quedan > 0 && c < celdaDe.length; c++) {
+      int celda = celdaDe[c];
+      if (celda < 0)
+        continue;
+      quedan--;
+      if (tks[celda] > 0) {
+        tks[celda]--;
+        sucias.set(celda);
+      }
+    }
+  }
+
+  /**
+   * Deja la carretera vacía.
+   */
+  public void vaciar() {
+    Arrays.fill(coche, 0);
+    Arrays.fill(tks, 0);
+    Arrays.fill(celdaDe, -1);
+    enCarretera = 0;
+    sucias.clear();
+    repaint();
+  }
+
+  /**
+   * Vuelve a ajustar la carretera al ancho del componente.
+   */
+  public void ajustar() {
+    ancho = 0;
+    origen = 0;
+    repaint();
+  }
+
+  private double ancho() {
+    double ajustado = (double) getWidth() / segmentos;
+    return ancho < ajustado ? ajustado : ancho;
+  }
+
+  private double alto() {
+    return (double) getHeight() / carriles;
+  }
+
+  // Mantiene la carretera dentro del componente
+  private void limitar() {
+    origen = Math.min(0, Math.max(origen, getWidth() - segmentos * ancho()));
+  }
+
+  private void zoom(int x, double factor) {
+    double antes = ancho();
+    double ajustado = (double) getWidth() / segmentos;
+    double nuevo = Math.max(ajustado, Math.min(Math.max(ANCHO_MAXIMO, ajustado), antes * factor));
+    origen = x - (x - origen) * nuevo / antes;
+    ancho = nuevo;
+    limitar();
+    repaint();
+  }
+
+  private void desplazar(int dx) {
+    origen += dx;
+    limitar();
+    repaint();
+  }
+
+  // Rectángulo de la celda en el componente
+  private Rectangle rectangulo(int celda, Rectangle r) {
+    int s = celda / carriles;
+    int c = celda % carriles;
+    double an = ancho();
+    double al = alto();
+    int x0 = (int) Math.floor(origen + s * an);
+    int x1 = (int) Math.floor(origen + (s + 1) * an);
+    int y0 = (int) Math.floor((carriles - 1 - c) * al);
+    int y1 = (int) Math.floor((carriles - c) * al);
+    r.setBounds(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+    return r;
+  }
+
+  // Repinta la zona que cubre las celdas sucias visibles
+  private void repintarSucias() {
+    if (sucias.isEmpty())
+      return;
+    Rectangle zona = null;
+    Rectangle r = new Rectangle();
+    int w = getWidth();
+    for (int celda = sucias.nextSetBit(0); celda >= 0; celda = sucias.nextSetBit(celda + 1)) {
+      rectangulo(celda, r);
+      if (r.x + r.width < 0 || r.x > w)
+        continue;
+      if (zona == null)
+        zona = new Rectangle(r);
+      else
+        zona.add(r);
+    }
+    sucias.clear();
+    if (zona != null)
+      repaint(zona);
+  }
+
+  private Color color(int c) {
+    if (c >= colores.length)
+      colores = Arrays.copyOf(colores, Math.max(c + 1, 2 * colores.length));
+    if (colores[c] == null)
+      colores[c] = Color.getHSBColor((c * 0.618034f) % 1, 0.55f, 0.95f);
+    return colores[c];
+  }
+
+  protected void paintComponent(Graphics g) {
+    Rectangle clip = g.getClipBounds();
+    if (clip == null)
+      clip = new Rectangle(0, 0, getWidth(), getHeight());
+    g.setColor(FONDO);
+    g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+    limitar();
+    double an = ancho();
+    double al = alto();
+
+    // Solo los segmentos y carriles que cortan el área a pintar
+    int s0 = Math.max(0, (int) Math.floor((clip.x - origen) / an));
+    int s1 = Math.min(segmentos - 1, (int) Math.floor((clip.x + clip.width - origen) / an));
+    int c0 = Math.max(0, carriles - 1 - (int) Math.floor((clip.y + clip.height) / al));
+    int c1 = Math.min(carriles - 1, carriles - 1 - (int) Math.floor(clip.y / al));
+
+    FontMetrics fm = g.getFontMetrics();
+    boolean texto = an >= ANCHO_TEXTO && al >= fm.getHeight();
+    Rectangle r = new Rectangle();
+    for (int s = s0; s <= s1; s++) {
+      for (int c = c0; c <= c1; c++) {
+        int celda = s * carriles + c;
+        if (coche[celda] == 0)
+          continue;
+        rectangulo(celda, r);
+        int n = coche[celda] - 1;
+        g.setColor(color(n));
+        g.fillRect(r.x + 1, r.y + 1, Math.max(1, r.width - 2), Math.max(1, r.height - 2));
+        if (texto) {
+          g.setColor(Color.BLACK);
+          String str = nombres.apply(n) + "@" + tks[celda];
+          g.drawString(str, r.x + 4, r.y + (r.height + fm.getAscent() - fm.getDescent()) / 2);
+        }
+      }
+    }
+
+    // Separación entre segmentos y carriles, si hay sitio para verla
+    g.setColor(LINEAS);
+    if (an >= 4) {
+      for (int s = s0; s <= s1 + 1; s++) {
+        int x = (int) Math.floor(origen + s * an);
+        g.drawLine(x, clip.y, x, clip.y + clip.height);
+      }
+    }
+    if (al >= 4) {
+      int x0 = Math.max(clip.x, (int) Math.floor(origen));
+      int x1 = Math.min(clip.x + clip.width, (int) Math.floor(origen + segmentos * an));
+      for (int c = 1; c < carriles; c++) {
+        int y = (int) Math.floor(c * al);
+        g.drawLine(x0, y, x1, y);
+      }
+    }
+  }
+}